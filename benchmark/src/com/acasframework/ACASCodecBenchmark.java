@@ -0,0 +1,208 @@
+package com.acasframework;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.util.Log;
+
+/**
+ * <p>Compare the binary codec with the Bundle path: encode time, decode time and bytes on
+ * the wire for a few message shapes.</p>
+ * <p>JMH does not run on the Android runtime, so this source set follows its method on the
+ * device: warmup iterations, then measured iterations whose results are consumed so that
+ * the work is not optimized away. Both paths are parcelled like binder does, the Bundle
+ * path with the routing extras added by the sender and the codec path as its single
+ * byte array extra.</p>
+ * <p>It is not part of the library. Add this folder as a source folder of a test
+ * application and call {@link #run()} from a background thread of a release build.</p>
+ */
+public class ACASCodecBenchmark {
+
+	static final String TAG = ACASCodecBenchmark.class.getSimpleName();
+
+	static final int WARMUP_ITERATIONS = 5;
+	static final int MEASURED_ITERATIONS = 10;
+	static final int OPERATIONS = 2000;
+
+	// Consumes the results so that no path is dropped as dead code
+	static volatile int sSink;
+
+	/**
+	 * One measured path
+	 */
+	interface Path {
+		byte[] encode(ACASMessage message);
+
+		void decode(byte[] data);
+	}
+
+	private final ACASMessageCodec mCodec = new ACASMessageCodec();
+
+	private final Path mBundlePath = new Path() {
+		@Override
+		public byte[] encode(ACASMessage message) {
+			final Bundle extras = new Bundle(message.mExtras);
+			extras.putString(ACASCommunication.EXTRA_RECEIVER_ID, message.mIdReceiver);
+			extras.putString(ACASCommunication.EXTRA_SENDER_ID, message.mIdSender);
+			extras.putLong(ACASCommunication.EXTRA_ID, message.mId);
+			return marshall(extras);
+		}
+
+		@Override
+		public void decode(byte[] data) {
+			final Bundle extras = unmarshall(data);
+			final ACASMessage message = new ACASMessage();
+			message.mIdSender = extras.getString(ACASCommunication.EXTRA_SENDER_ID);
+			message.mIdReceiver = extras.getString(ACASCommunication.EXTRA_RECEIVER_ID);
+			message.mId = extras.getLong(ACASCommunication.EXTRA_ID);
+			extras.remove(ACASCommunication.EXTRA_RECEIVER_ID);
+			extras.remove(ACASCommunication.EXTRA_SENDER_ID);
+			extras.remove(ACASCommunication.EXTRA_ID);
+			message.mExtras = extras;
+			sSink += extras.size();
+		}
+	};
+
+	private final Path mCodecPath = new Path() {
+		@Override
+		public byte[] encode(ACASMessage message) {
+			final Bundle extras = new Bundle();
+			extras.putByteArray(ACASCommunication.EXTRA_BINARY, mCodec.encode(message, null, 0));
+			return marshall(extras);
+		}
+
+		@Override
+		public void decode(byte[] data) {
+			final ACASMessage message = new ACASMessage();
+			mCodec.decode(unmarshall(data).getByteArray(ACASCommunication.EXTRA_BINARY), message);
+			sSink += message.mExtras.size();
+		}
+	};
+
+	/**
+	 * Run every message shape on both paths
+	 *
+	 * @return the report, one line per shape and path
+	 */
+	public String run() {
+		final StringBuilder report = new StringBuilder();
+		final String[] names = { "small", "text", "wide" };
+		final ACASMessage[] messages = { smallMessage(), textMessage(), wideMessage() };
+		for (int i = 0; i < messages.length; i++) {
+			measure(report, names[i], "bundle", mBundlePath, messages[i]);
+			measure(report, names[i], "codec", mCodecPath, messages[i]);
+		}
+		Log.i(TAG, report.toString());
+		return report.toString();
+	}
+
+	private static void measure(StringBuilder report, String shape, String name, Path path, ACASMessage message) {
+		final byte[] data = path.encode(message);
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			encode(path, message);
+			decode(path, data);
+		}
+		long encodeNanos = Long.MAX_VALUE;
+		long decodeNanos = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			encodeNanos = Math.min(encodeNanos, encode(path, message));
+			decodeNanos = Math.min(decodeNanos, decode(path, data));
+		}
+		report.append(shape).append(' ').append(name)
+				.append(": encode ").append(encodeNanos / OPERATIONS).append(" ns/op")
+				.append(", decode ").append(decodeNanos / OPERATIONS).append(" ns/op")
+				.append(", ").append(data.length).append(" bytes\n");
+	}
+
+	/**
+	 * @return the time of one iteration in ns
+	 */
+	private static long encode(Path path, ACASMessage message) {
+		final long start = System.nanoTime();
+		int bytes = 0;
+		for (int i = 0; i < OPERATIONS; i++) {
+			bytes += path.encode(message).length;
+		}
+		final long elapsed = System.nanoTime() - start;
+		sSink += bytes;
+		return elapsed;
+	}
+
+	/**
+	 * @return the time of one iteration in ns
+	 */
+	private static long decode(Path path, byte[] data) {
+		final long start = System.nanoTime();
+		for (int i = 0; i < OPERATIONS; i++) {
+			path.decode(data);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static byte[] marshall(Bundle extras) {
+		final Parcel parcel = Parcel.obtain();
+		try {
+			parcel.writeBundle(extras);
+			return parcel.marshall();
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	private static Bundle unmarshall(byte[] data) {
+		final Parcel parcel = Parcel.obtain();
+		try {
+			parcel.unmarshall(data, 0, data.length);
+			parcel.setDataPosition(0);
+			final Bundle extras = parcel.readBundle();
+			// Reading the size unparcels the whole bundle, like a listener does
+			extras.size();
+			return extras;
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	private static ACASMessage newMessage() {
+		final ACASMessage message = new ACASMessage();
+		message.mIdSender = "com.acasframework.sender";
+		message.mIdReceiver = "com.acasframework.receiver";
+		message.mId = 42;
+		message.mExtras = new Bundle();
+		return message;
+	}
+
+	/**
+	 * A few typed fields, the usual control message
+	 */
+	private static ACASMessage smallMessage() {
+		final ACASMessage message = newMessage();
+		message.mExtras.putInt("count", 12);
+		message.mExtras.putLong("time", 1386000000000L);
+		message.mExtras.putString("state", "running");
+		return message;
+	}
+
+	/**
+	 * One JSON-like text of 4 KB
+	 */
+	private static ACASMessage textMessage() {
+		final ACASMessage message = newMessage();
+		final StringBuilder text = new StringBuilder();
+		while (text.length() < 4096) {
+			text.append("{\"id\":").append(text.length()).append(",\"name\":\"item\"},");
+		}
+		message.mExtras.putString("json", text.toString());
+		return message;
+	}
+
+	/**
+	 * Many small fields, where the per key cost dominates
+	 */
+	private static ACASMessage wideMessage() {
+		final ACASMessage message = newMessage();
+		for (int i = 0; i < 50; i++) {
+			message.mExtras.putInt("field" + i, i);
+		}
+		return message;
+	}
+}
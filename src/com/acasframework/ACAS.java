@@ -8,8 +8,14 @@ import android.util.Log;
 import com.acasframework.exception.ACASAlreadyInititateException;
 import com.acasframework.exception.ACASIllegalNumberException;
 import com.acasframework.exception.ACASNonInititateException;
+import com.acasframework.exception.ACASQueueFullException;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -24,6 +30,7 @@ public class ACAS {
 	static final String EXCEPTION_NON_INITIATE = "Please initiate the ACAS lib before use this feature";
 	static final String EXCEPTION_NEGATIVE_NUMBER = "The number must be positive";
 	static final String EXCEPTION_ZERO_NUMBER = "Number must be superior to zero";
+	static final String EXCEPTION_INVALID_RANGE = "The first number must not be superior to the last";
 	
 	static final String ACTION_MESSAGE = "com.acas.sources.ACTION_MESSAGE";
 
@@ -51,8 +58,8 @@ public class ACAS {
 	 *         <strong>false</strong> otherwise.
 	 */
 	public static void initiate(Context applicationContext, String securityKey) {
-		if (DEBUG_MODE) {
-			Log.i(TAG, "Try to init the ACAS lib");
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "Try to init the ACAS lib");
 		}
 		if (isInitiate()) {
 			throw new ACASAlreadyInititateException(EXCEPTION_ALREADY_INIT);
@@ -132,18 +139,115 @@ public class ACAS {
 	 *            The unique id of the receiver of message
 	 * @param extras
 	 *            The bundle container of data
+	 * @return the completion handle, done when the message has been handed to the system
 	 * @throws ACASNonInititateException
 	 *             If library non initiate by
 	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
 	 */
-	public static void sendMessage(int tag, String idDest, Bundle extras) {
-		if (DEBUG_MODE) {
-			Log.i(TAG, "sendMessage tag=" + tag + " idRecepteur=" + idDest);
+	public static ACASFuture<ACASMessage> sendMessage(int tag, String idDest, Bundle extras) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "sendMessage tag={} idRecepteur={}", tag, idDest);
 		}
 		if (!isInitiate()) {
 			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
 		}
-		mCommunication.send(tag, idDest, extras);
+		return mCommunication.send(tag, idDest, extras);
+	}
+
+	/**
+	 * <p>Use for send a message with a binary payload to a particular module identified by idDest param.</p>
+	 * <p>Once a large payload directory is set, a payload above the large payload threshold is
+	 * written once into a memory-mapped file and only the file name is sent, the receiver maps it
+	 * without copying. Without directory the payload is always sent inline.</p>
+	 * 
+	 * @param tag
+	 *            An unique id for this transaction
+	 * @param idDest
+	 *            The unique id of the receiver of message
+	 * @param extras
+	 *            The bundle container of data
+	 * @param payload
+	 *            The binary payload, read from its position to its limit when the message is sent
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @see {@link com.acasframework.ACAS#setLargePayloadThreshold(int)}
+	 */
+	public static ACASFuture<ACASMessage> sendMessage(int tag, String idDest, Bundle extras, ByteBuffer payload) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "sendMessage tag={} idRecepteur={}", tag, idDest);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		return mCommunication.send(tag, idDest, extras, payload);
+	}
+
+	/**
+	 * <p>Use for send a message with a priority to a particular module identified by idDest param.</p>
+	 * <p>A {@link com.acasframework.ACASPriority#HIGH} message, like a control message, goes
+	 * ahead of the bulk messages in the send queue and in the listener queues.</p>
+	 * 
+	 * @param tag
+	 *            An unique id for this transaction
+	 * @param idDest
+	 *            The unique id of the receiver of message
+	 * @param extras
+	 *            The bundle container of data
+	 * @param priority
+	 *            The scheduling class of the message
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
+	 */
+	public static ACASFuture<ACASMessage> sendMessage(int tag, String idDest, Bundle extras, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "sendMessage tag={} idRecepteur={} priority={}", tag, idDest, priority);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		return mCommunication.send(tag, idDest, extras, null, priority);
+	}
+
+	/**
+	 * <p>Use for send a request to a particular module and get its response.</p>
+	 * <p>The receiver answers with {@link com.acasframework.ACASMessage#respond(Bundle)}, the response
+	 * completes the returned future instead of being stored and delivered to the listeners.</p>
+	 * 
+	 * @param tag
+	 *            An unique id for this transaction
+	 * @param idDest
+	 *            The unique id of the receiver of message
+	 * @param extras
+	 *            The bundle container of data
+	 * @param timeout
+	 *            The time to wait for the response in ms
+	 * @return the future response, failed with a {@link java.util.concurrent.TimeoutException} if no response came in time
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws ACASQueueFullException
+	 *             If too many requests wait for a response, or if the send queue is full with the
+	 *             {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
+	 */
+	public static ACASFuture<ACASMessage> request(int tag, String idDest, Bundle extras, long timeout) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "request tag={} idRecepteur={}", tag, idDest);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		if (timeout < 0) {
+			throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+		}
+		return mCommunication.request(tag, idDest, extras, timeout);
 	}
 
 	/**
@@ -153,18 +257,261 @@ public class ACAS {
 	 *            An unique id for this transaction
 	 * @param extras
 	 *            The bundle container of data
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
+	 */
+	public static ACASFuture<ACASMessage> broadcast(int tag, Bundle extras) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "broadcast tag={}", tag);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		return mCommunication.broadcast(tag, extras);
+	}
+
+	/**
+	 * <p>Use for send a message with a priority to all receiver of this application.</p>
+	 * 
+	 * @param tag
+	 *            An unique id for this transaction
+	 * @param extras
+	 *            The bundle container of data
+	 * @param priority
+	 *            The scheduling class of the message
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
+	 */
+	public static ACASFuture<ACASMessage> broadcast(int tag, Bundle extras, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "broadcast tag={} priority={}", tag, priority);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		return mCommunication.broadcast(tag, extras, priority);
+	}
+
+	/**
+	 * <p>Use for publish a message on a topic to all receiver of this application.</p>
+	 * <p>A topic is a list of segments separated by '/', like "sensor/gps/fix", the message
+	 * reaches the listeners added by
+	 * {@link com.acasframework.ACAS#addToTopicListenerList(ACASOnMessageReceivedListener, String)}
+	 * with a matching filter. It has a reserved tag out of the int range, so it never reaches
+	 * the listeners of a tag or a range of tags nor {@link com.acasframework.ACAS#getMessageByTag(int)}.</p>
+	 * 
+	 * @param topic
+	 *            The topic of the message, without wildcard
+	 * @param extras
+	 *            The bundle container of data
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws IllegalArgumentException
+	 *             If the topic is empty or has a wildcard
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
+	 */
+	public static ACASFuture<ACASMessage> publish(String topic, Bundle extras) {
+		return publish(topic, extras, ACASPriority.NORMAL);
+	}
+
+	/**
+	 * <p>Use for publish a message with a priority on a topic to all receiver of this application.</p>
+	 * 
+	 * @param topic
+	 *            The topic of the message, without wildcard
+	 * @param extras
+	 *            The bundle container of data
+	 * @param priority
+	 *            The scheduling class of the message
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws IllegalArgumentException
+	 *             If the topic is empty or has a wildcard
+	 * @see {@link com.acasframework.ACAS#publish(String, Bundle)}
+	 */
+	public static ACASFuture<ACASMessage> publish(String topic, Bundle extras, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "publish topic={} priority={}", topic, priority);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		ACASTopicTrie.split(topic, false);
+		return mCommunication.publish(topic, extras, priority);
+	}
+
+	/**
+	 * <p>Use for send a message to the members of a group.</p>
+	 * <p>The message is encoded once and handed to the system once per member, it is
+	 * received like a broadcast by the members only. It is cheaper than one
+	 * {@link com.acasframework.ACAS#sendMessage(int, String, Bundle)} per member.</p>
+	 * 
+	 * @param group
+	 *            The name of a group set by {@link com.acasframework.ACAS#setGroup(String, String...)}
+	 * @param tag
+	 *            An unique id for this transaction
+	 * @param extras
+	 *            The bundle container of data
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws IllegalArgumentException
+	 *             If the group has no member
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
+	 */
+	public static ACASFuture<ACASMessage> sendToGroup(String group, int tag, Bundle extras) {
+		return sendToGroup(group, tag, extras, (ByteBuffer) null);
+	}
+
+	/**
+	 * <p>Use for send a message with a binary payload to the members of a group.</p>
+	 * <p>Once a large payload directory is set, a payload above the large payload threshold
+	 * is written once into a memory-mapped file shared by all the members.</p>
+	 * 
+	 * @param group
+	 *            The name of a group set by {@link com.acasframework.ACAS#setGroup(String, String...)}
+	 * @param tag
+	 *            An unique id for this transaction
+	 * @param extras
+	 *            The bundle container of data
+	 * @param payload
+	 *            The binary payload or null
+	 * @return the completion handle, done when the message has been handed to the system
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws IllegalArgumentException
+	 *             If the group has no member
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
+	 */
+	public static ACASFuture<ACASMessage> sendToGroup(String group, int tag, Bundle extras, ByteBuffer payload) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "sendToGroup group={} tag={}", group, tag);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		return mCommunication.sendToGroup(group, tag, extras, payload, ACASPriority.NORMAL);
+	}
+
+	/**
+	 * <p>Use for send a message with a priority to the members of a group.</p>
+	 * <p>A {@link com.acasframework.ACASPriority#HIGH} message goes ahead of the bulk
+	 * messages in the send queue and in the listener queues.</p>
+	 * 
+	 * @param group
+	 *            The name of a group set by {@link com.acasframework.ACAS#setGroup(String, String...)}
+	 * @param tag
+	 *            An unique id for this transaction
+	 * @param extras
+	 *            The bundle container of data
+	 * @param priority
+	 *            The scheduling class of the message
+	 * @return the completion handle, done when the message has been handed to the system
 	 * @throws ACASNonInititateException
 	 *             If library non initiate by
 	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @throws IllegalArgumentException
+	 *             If the group has no member
+	 * @throws ACASQueueFullException
+	 *             If the send queue is full with the {@link com.acasframework.ACASQueuePolicy#FAIL_FAST} policy
 	 */
-	public static void broadcast(int tag, Bundle extras) {
-		if (DEBUG_MODE) {
-			Log.i(TAG, "broadcast tag=" + tag);
+	public static ACASFuture<ACASMessage> sendToGroup(String group, int tag, Bundle extras, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "sendToGroup group={} tag={} priority={}", group, tag, priority);
 		}
 		if (!isInitiate()) {
 			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
 		}
-		mCommunication.broadcast(tag, extras);
+		return mCommunication.sendToGroup(group, tag, extras, null, priority);
+	}
+
+	/**
+	 * <p>Set the members of a group, replacing the previous ones.</p>
+	 * 
+	 * @param group
+	 *            The name of the group
+	 * @param moduleIds
+	 *            The unique ids of the members, none for remove the group
+	 */
+	public static void setGroup(String group, String... moduleIds) {
+		ACASCommunication.setGroup(group, Arrays.asList(moduleIds));
+	}
+
+	/**
+	 * <p>Set the members of a group from modules, for example a part of
+	 * {@link com.acasframework.ACAS#getModuleList()}.</p>
+	 * 
+	 * @param group
+	 *            The name of the group
+	 * @param modules
+	 *            The members, none for remove the group
+	 */
+	public static void setGroup(String group, List<ACASModule> modules) {
+		final ArrayList<String> moduleIds = new ArrayList<String>(modules.size());
+		for (ACASModule module : modules) {
+			moduleIds.add(module.mPackage);
+		}
+		ACASCommunication.setGroup(group, moduleIds);
+	}
+
+	/**
+	 * <p>Add a member to a group, the group is created if needed.</p>
+	 * 
+	 * @param group
+	 * @param moduleId
+	 * @return true if the module was not in the group
+	 */
+	public static boolean addToGroup(String group, String moduleId) {
+		return ACASCommunication.addToGroup(group, moduleId);
+	}
+
+	/**
+	 * <p>Remove a member from a group, the group is removed with its last member.</p>
+	 * 
+	 * @param group
+	 * @param moduleId
+	 * @return true if the module was in the group
+	 */
+	public static boolean removeFromGroup(String group, String moduleId) {
+		return ACASCommunication.removeFromGroup(group, moduleId);
+	}
+
+	/**
+	 * <p>Remove a group with all its members.</p>
+	 * 
+	 * @param group
+	 * @return true if the group existed
+	 */
+	public static boolean removeGroup(String group) {
+		return ACASCommunication.removeGroup(group);
+	}
+
+	/**
+	 * <p>Get the members of a group.</p>
+	 * 
+	 * @param group
+	 * @return the unique ids of the members, or null if the group does not exist
+	 */
+	public static String[] getGroup(String group) {
+		final String[] members = ACASCommunication.getGroup(group);
+		return members == null ? null : members.clone();
 	}
 
 	/**
@@ -178,8 +525,8 @@ public class ACAS {
 	 * @see {@link com.acasframework.ACASMessage}
 	 */
 	public static ACASMessage getMessageByTag(int tag) {
-		if (DEBUG_MODE) {
-			Log.i(TAG, "getMessageByTag tag=" + tag);
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "getMessageByTag tag={}", tag);
 		}
 		if (!isInitiate()) {
 			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
@@ -187,6 +534,28 @@ public class ACAS {
 		return mCommunication.getMessageById(tag);
 	}
 
+	/**
+	 * <p>Get a message by tag sent by a particular module, return null if not found.</p>
+	 * 
+	 * @param tag
+	 * @param idSender
+	 *            The unique id of the sender of message
+	 * @return ACASMessage or null if no message were found
+	 * @throws ACASNonInititateException
+	 *             If library non initiate by
+	 *             {@link com.acasframework.ACAS#initiate(Context, String)}
+	 * @see {@link com.acasframework.ACASMessage}
+	 */
+	public static ACASMessage getMessageByTag(int tag, String idSender) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "getMessageByTag tag={} idSender={}", tag, idSender);
+		}
+		if (!isInitiate()) {
+			throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+		}
+		return mCommunication.getMessageBySenderAndId(idSender, tag);
+	}
+
     /**
      * <p>Use for add an receiver to listener list, it will notified of all future  {@link com.acasframework.ACASMessage} who application receive</p>
      * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}} !</p>
@@ -199,123 +568,362 @@ public class ACAS {
      * @see {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}}
      */
     public static void addToListenerList(ACASOnMessageReceivedListener listener) {
-        if (DEBUG_MODE) {
-            Log.i(TAG, "addToListenerList");
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToListenerList");
         }
         if (!isInitiate()) {
             throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
         }
         if (listener != null) {
             mCommunication.setOnMessageReceivedListener(listener);
-        } else if (DEBUG_MODE) {
-            Log.w(TAG, "Impossible to add this listener in list because is null");
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
         }
     }
 
     /**
-     * <p>Remove one listener from the list of active {@link com.acasframework.ACASMessage} receiver.</p>
+     * <p>Use for add an receiver to listener list, it will notified of all future  {@link com.acasframework.ACASMessage} who application receive
+     * on the thread chosen by the dispatch mode</p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}} !</p>
      *
      * @param listener
-     *            The listener who was removed from list
+     *            The listener who was added into list
+     * @param mode
+     *            The thread on which the listener is called
+     * @param queueSize
+     *            The maximum number of message waiting for this listener
+     * @param policy
+     *            The behaviour when the listener queue is full, with {@link com.acasframework.ACASQueuePolicy#FAIL_FAST}
+     *            the new message is not delivered to this listener
      * @throws ACASNonInititateException
      *             If library non initiate by
      *             {@link com.acasframework.ACAS#initiate(Context, String)}
-     * @see {@link com.acasframework.ACAS#addToListenerList(ACASOnMessageReceivedListener)}
+     * @see {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}}
      */
-    public static void removeToListenerList(ACASOnMessageReceivedListener listener) {
+    public static void addToListenerList(ACASOnMessageReceivedListener listener, ACASDispatchMode mode, int queueSize, ACASQueuePolicy policy) {
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToListenerList mode={}", mode);
+        }
         if (!isInitiate()) {
             throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
         }
+        if (queueSize < 0) {
+            throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+        } else if (queueSize == 0) {
+            throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+        }
         if (listener != null) {
-            mCommunication.removeOnMessageReceiverListener(listener);
-        } else if (DEBUG_MODE) {
-            Log.w(TAG, "Impossible to remove this listener from list because is null");
+            mCommunication.setOnMessageReceivedListener(listener, mode == null ? ACASCommunication.sListenerDispatchMode : mode,
+                    queueSize, policy == null ? ACASCommunication.sListenerQueuePolicy : policy);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
         }
     }
 
     /**
-     * <p>Use for add an receiver to listener list, it will notified of all future  {@link com.acasframework.ACASModule} who the application receives</p>
-     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}  !</p>
+     * <p>Use for add an receiver to listener list, called on the thread chosen by the dispatch mode</p>
+     *
+     * @param listener
+     *            The listener who was added into list
+     * @param mode
+     *            The thread on which the listener is called
+     * @see {@link com.acasframework.ACAS#addToListenerList(ACASOnMessageReceivedListener, ACASDispatchMode, int, ACASQueuePolicy)}
+     */
+    public static void addToListenerList(ACASOnMessageReceivedListener listener, ACASDispatchMode mode) {
+        addToListenerList(listener, mode, ACASCommunication.sListenerQueueCapacity, ACASCommunication.sListenerQueuePolicy);
+    }
+
+    /**
+     * <p>Use for add an receiver to listener list with its own backlog of stored messages,
+     * the other listeners do not receive it again</p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}} !</p>
      *
      * @param listener
      *            The listener who was added into list
+     * @param backlog
+     *            The stored messages handed to the listener before the new ones
+     * @param backlogCount
+     *            The number of messages with {@link com.acasframework.ACASBacklogMode#LAST}
      * @throws ACASNonInititateException
      *             If library non initiate by
      *             {@link com.acasframework.ACAS#initiate(Context, String)}
-     * @see {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}
+     * @see {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}}
      */
-    public static void addToListenerModuleList(ACASOnListModuleReceiver listener) {
-        if (DEBUG_MODE) {
-            Log.i(TAG, "addToListenerList");
+    public static void addToListenerList(ACASOnMessageReceivedListener listener, ACASBacklogMode backlog, int backlogCount) {
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToListenerList backlog={}", backlog);
         }
         if (!isInitiate()) {
             throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
         }
+        if (backlogCount < 0) {
+            throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+        }
         if (listener != null) {
-            mListModuleReceiver.setOnListModuleReceivedListener(listener);
-        } else if (DEBUG_MODE) {
-            Log.w(TAG, "Impossible to add this listener in list because is null");
+            mCommunication.setOnMessageReceivedListener(listener, backlog == null ? ACASBacklogMode.NONE : backlog, backlogCount);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
         }
     }
 
     /**
-     * <p>Remove one listener from the list of active {@link com.acasframework.ACASModule} receiver.</p>
+     * <p>Set the backlog of stored messages handed to each new listener, only the
+     * undelivered messages by default</p>
+     *
+     * @param backlog
+     *            The stored messages handed to the listener before the new ones
+     * @param backlogCount
+     *            The number of messages with {@link com.acasframework.ACASBacklogMode#LAST}
+     */
+    public static void setListenerBacklog(ACASBacklogMode backlog, int backlogCount) {
+        if (backlogCount < 0) {
+            throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+        }
+        ACASCommunication.sListenerBacklogMode = backlog == null ? ACASBacklogMode.NONE : backlog;
+        ACASCommunication.sListenerBacklogCount = backlogCount;
+    }
+
+    public static ACASBacklogMode getListenerBacklogMode() {
+        return ACASCommunication.sListenerBacklogMode;
+    }
+
+    /**
+     * <p>Use for add an receiver to listener list, it will notified only of the future {@link com.acasframework.ACASMessage} with this tag</p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}} !</p>
      *
      * @param listener
-     *            The listener who was removed from list
+     *            The listener who was added into list
+     * @param tag
+     *            The tag of the wanted messages
      * @throws ACASNonInititateException
      *             If library non initiate by
      *             {@link com.acasframework.ACAS#initiate(Context, String)}
-     * @see {@link com.acasframework.ACAS#addToListenerModuleList(ACASOnListModuleReceiver)} }
+     * @see {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}}
      */
-    public static void removeToListenerModuleList(ACASOnListModuleReceiver listener) {
+    public static void addToListenerList(ACASOnMessageReceivedListener listener, int tag) {
+        addToListenerList(listener, tag, tag);
+    }
+
+    /**
+     * <p>Use for add an receiver to listener list, it will notified only of the future {@link com.acasframework.ACASMessage} with a tag
+     * between tagMin and tagMax included</p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}} !</p>
+     *
+     * @param listener
+     *            The listener who was added into list
+     * @param tagMin
+     *            The first tag of the wanted messages
+     * @param tagMax
+     *            The last tag of the wanted messages
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     * @throws ACASIllegalNumberException
+     *             If tagMin is greater than tagMax
+     * @see {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}}
+     */
+    public static void addToListenerList(ACASOnMessageReceivedListener listener, int tagMin, int tagMax) {
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToListenerList tagMin={} tagMax={}", tagMin, tagMax);
+        }
         if (!isInitiate()) {
             throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
         }
+        if (tagMin > tagMax) {
+            throw new ACASIllegalNumberException(EXCEPTION_INVALID_RANGE);
+        }
         if (listener != null) {
-            mListModuleReceiver.removeOnListModuleReceiverListener(listener);
-        } else if (DEBUG_MODE) {
-            Log.w(TAG, "Impossible to remove this listener from list because is null");
+            mCommunication.setOnMessageReceivedListener(listener, tagMin, tagMax);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
         }
     }
 
-
     /**
-     * <p>Use for add an receiver to listener list, it will notified of the  {@link com.acasframework.ACASModule} that the application receives filtered by @entryPoint </p>
-     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}  !</p>
+     * <p>Use for add an receiver to listener list, it will notified only of the future {@link com.acasframework.ACASMessage} sent by this module</p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}} !</p>
      *
      * @param listener
      *            The listener who was added into list
-     * @param entryPoint
-     *            The entry point type to filter.
+     * @param idSender
+     *            The unique id of the sender of the wanted messages
      * @throws ACASNonInititateException
      *             If library non initiate by
      *             {@link com.acasframework.ACAS#initiate(Context, String)}
-     * @see {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}
+     * @see {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}}
      */
-    public static void addToListenerModuleList(ACASOnListModuleReceiver listener, String entryPoint) {
-        if (DEBUG_MODE) {
-            Log.i(TAG, "addToListenerList");
+    public static void addToListenerList(ACASOnMessageReceivedListener listener, String idSender) {
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToListenerList idSender={}", idSender);
         }
         if (!isInitiate()) {
             throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
         }
-        if (listener != null) {
-            mListModuleReceiver.setOnListModuleReceivedListener(listener, entryPoint);
-        } else if (DEBUG_MODE) {
-            Log.w(TAG, "Impossible to add this listener in list because is null");
+        if (listener != null && idSender != null) {
+            mCommunication.setOnMessageReceivedListener(listener, idSender);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
         }
     }
-    
+
     /**
-     * <p>Get the number of message sent during the last session<p>
-     * 
-     * @return the number of sent message
-     */
+     * <p>Use for add an receiver to listener list, it will notified only of the future {@link com.acasframework.ACASMessage}
+     * published on a topic matching the filter</p>
+     * <p>A filter segment "*" matches any one segment, a last segment "#" matches any number of
+     * segments: "sensor/*&#47;fix" matches "sensor/gps/fix", "sensor/#" matches "sensor" and "sensor/gps/fix".
+     * The matching cost depends on the topic depth, not on the number of filters.</p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerList(ACASOnMessageReceivedListener)}} !</p>
+     *
+     * @param listener
+     *            The listener who was added into list
+     * @param topicFilter
+     *            The filter of the wanted topics
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     * @throws IllegalArgumentException
+     *             If the filter is empty or has a misplaced wildcard
+     * @see {@link com.acasframework.ACAS#publish(String, Bundle)}
+     */
+    public static void addToTopicListenerList(ACASOnMessageReceivedListener listener, String topicFilter) {
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToTopicListenerList topicFilter={}", topicFilter);
+        }
+        if (!isInitiate()) {
+            throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+        }
+        final String[] filter = ACASTopicTrie.split(topicFilter, true);
+        if (listener != null) {
+            mCommunication.setOnMessageReceivedListener(listener, filter);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
+        }
+    }
+
+    /**
+     * <p>Set the dispatch mode, queue size and overflow policy of the listeners added without them.</p>
+     *
+     * @param mode
+     *            {@link com.acasframework.ACASDispatchMode#MAIN} by default
+     * @param queueSize
+     *            The maximum number of message waiting for one listener
+     * @param policy
+     *            {@link com.acasframework.ACASQueuePolicy#DROP_OLDEST} by default, the receiver thread
+     *            never waits for a listener
+     */
+    public static void setDefaultListenerDispatch(ACASDispatchMode mode, int queueSize, ACASQueuePolicy policy) {
+        if (queueSize < 0) {
+            throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+        } else if (queueSize == 0) {
+            throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+        }
+        ACASCommunication.sListenerDispatchMode = mode == null ? ACASDispatchMode.MAIN : mode;
+        ACASCommunication.sListenerQueueCapacity = queueSize;
+        ACASCommunication.sListenerQueuePolicy = policy == null ? ACASQueuePolicy.DROP_OLDEST : policy;
+    }
+
+    /**
+     * <p>Remove one listener from the list of active {@link com.acasframework.ACASMessage} receiver, with all its subscriptions.</p>
+     *
+     * @param listener
+     *            The listener who was removed from list
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     * @see {@link com.acasframework.ACAS#addToListenerList(ACASOnMessageReceivedListener)}
+     */
+    public static void removeToListenerList(ACASOnMessageReceivedListener listener) {
+        if (!isInitiate()) {
+            throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+        }
+        if (listener != null) {
+            mCommunication.removeOnMessageReceiverListener(listener);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to remove this listener from list because is null");
+        }
+    }
+
+    /**
+     * <p>Use for add an receiver to listener list, it will notified of all future  {@link com.acasframework.ACASModule} who the application receives</p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}  !</p>
+     *
+     * @param listener
+     *            The listener who was added into list
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     * @see {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}
+     */
+    public static void addToListenerModuleList(ACASOnListModuleReceiver listener) {
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToListenerList");
+        }
+        if (!isInitiate()) {
+            throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+        }
+        if (listener != null) {
+            mListModuleReceiver.setOnListModuleReceivedListener(listener);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
+        }
+    }
+
+    /**
+     * <p>Remove one listener from the list of active {@link com.acasframework.ACASModule} receiver.</p>
+     *
+     * @param listener
+     *            The listener who was removed from list
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     * @see {@link com.acasframework.ACAS#addToListenerModuleList(ACASOnListModuleReceiver)} }
+     */
+    public static void removeToListenerModuleList(ACASOnListModuleReceiver listener) {
+        if (!isInitiate()) {
+            throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+        }
+        if (listener != null) {
+            mListModuleReceiver.removeOnListModuleReceiverListener(listener);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to remove this listener from list because is null");
+        }
+    }
+
+
+    /**
+     * <p>Use for add an receiver to listener list, it will notified of the  {@link com.acasframework.ACASModule} that the application receives filtered by @entryPoint </p>
+     * <p>Don't forget to remove it with {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}  !</p>
+     *
+     * @param listener
+     *            The listener who was added into list
+     * @param entryPoint
+     *            The entry point type to filter.
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     * @see {@link com.acasframework.ACAS#removeToListenerModuleList(ACASOnListModuleReceiver)}
+     */
+    public static void addToListenerModuleList(ACASOnListModuleReceiver listener, String entryPoint) {
+        if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+            ACASLog.d(TAG, "addToListenerList");
+        }
+        if (!isInitiate()) {
+            throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+        }
+        if (listener != null) {
+            mListModuleReceiver.setOnListModuleReceivedListener(listener, entryPoint);
+        } else if (ACASLog.isLoggable(ACASLog.WARN)) {
+            ACASLog.w(TAG, "Impossible to add this listener in list because is null");
+        }
+    }
+    
+    /**
+     * <p>Get the number of message sent during the last session<p>
+     * 
+     * @return the number of sent message
+     */
     public static int getNumberMessageSended() {
-    	synchronized (mCommunication.mSendedList) {
-           	return ACASCommunication.sNumberMessageSended;
-		}
+    	return (int) ACASCommunication.sNumberMessageSended.sum();
     }
     
     /**
@@ -324,9 +932,7 @@ public class ACAS {
      * @return the number of receive message
      */
     public static int getNumberMessageReceived() {
-    	synchronized (mCommunication.mReceivedList) {
-    		return ACASCommunication.sNumberMessageReceived;
-    	}
+    	return (int) ACASCommunication.sNumberMessageReceived.sum();
     }
     
     /**
@@ -346,8 +952,30 @@ public class ACAS {
      * @return the number of message into receive history
      */
     public static int getStoredReceivMessageNumber() {
-    	synchronized (mCommunication.mReceivedList) {
-    		return mCommunication.mReceivedList.size();
+    	synchronized (mCommunication.mReceivedStore) {
+    		return mCommunication.mReceivedStore.size();
+    	}
+    }
+    
+    /**
+     * <p>Get the number of message into receive history delivered to a listener<p>
+     * 
+     * @return the number of delivered message into receive history
+     */
+    public static int getStoredReceivDeliveredMessageNumber() {
+    	synchronized (mCommunication.mReceivedStore) {
+    		return mCommunication.mReceivedStore.deliveredSize();
+    	}
+    }
+    
+    /**
+     * <p>Get the number of message into receive history not yet delivered to a listener<p>
+     * 
+     * @return the number of undelivered message into receive history
+     */
+    public static int getStoredReceivUndeliveredMessageNumber() {
+    	synchronized (mCommunication.mReceivedStore) {
+    		return mCommunication.mReceivedStore.undeliveredSize();
     	}
     }
 
@@ -364,21 +992,239 @@ public class ACAS {
     }
 
     public static void resetNumberOfMessageSent() {
-    	if (DEBUG_MODE) {
-    		Log.i(TAG, "Reset number of message sent");
-    	}
-    	synchronized (mCommunication.mSendedList) {
-    		ACASCommunication.sNumberMessageSended = 0;
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Reset number of message sent");
     	}
+    	ACASCommunication.sNumberMessageSended.reset();
     }
     
     public static void resetNumberOfMessageReceiv() {
-    	if (DEBUG_MODE) {
-    		Log.i(TAG, "Reset number of message receive");
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Reset number of message receive");
+    	}
+    	ACASCommunication.sNumberMessageReceived.reset();
+    }
+    
+    /**
+     * <p>Get the latency distribution of one step of the message path, over all the
+     * messages since the start or the last reset<p>
+     * 
+     * @param kind the measured step
+     * @return the snapshot, values in microseconds
+     */
+    public static ACASLatency getLatency(ACASLatencyKind kind) {
+    	return ACASCommunication.sMetrics.series(kind).mTotal.snapshot();
+    }
+    
+    /**
+     * <p>Get the latency distributions of one step of the message path by message tag,
+     * the first 64 tags seen are measured<p>
+     * 
+     * @param kind the measured step
+     * @return an unmodifiable map of the snapshots by tag
+     */
+    public static Map<Long, ACASLatency> getLatencyByTag(ACASLatencyKind kind) {
+    	return ACASCommunication.sMetrics.series(kind).snapshotByTag();
+    }
+    
+    /**
+     * <p>Get the latency distributions of one step of the message path by peer module,
+     * the receiver for {@link ACASLatencyKind#SEND} and the sender otherwise, the
+     * broadcasts are under "*"<p>
+     * 
+     * @param kind the measured step
+     * @return an unmodifiable map of the snapshots by module id
+     */
+    public static Map<String, ACASLatency> getLatencyByModule(ACASLatencyKind kind) {
+    	return ACASCommunication.sMetrics.series(kind).snapshotByPeer();
+    }
+    
+    /**
+     * <p>Get a snapshot of all the message bus and module sync metrics<p>
+     * 
+     * @return the immutable snapshot
+     */
+    public static ACASStats getStats() {
+    	if (!isInitiate()) {
+    		throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+    	}
+    	return mCommunication.snapshotStats();
+    }
+    
+    /**
+     * <p>Export a snapshot of the metrics on a fixed schedule, from a background thread.
+     * The previous export is stopped.</p>
+     * 
+     * @param exporter receives the snapshots
+     * @param period the time between two snapshots in ms
+     */
+    public static void startStatsExport(ACASStatsExporter exporter, long period) {
+    	if (period < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	} else if (period == 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+    	}
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Export stats every {} ms", period);
+    	}
+    	synchronized (ACASCommunication.class) {
+    		if (ACASCommunication.sStatsReporter != null) {
+    			ACASCommunication.sStatsReporter.stop();
+    		}
+    		ACASCommunication.sStatsReporter = new ACASStatsReporter(exporter, period);
+    	}
+    }
+    
+    /**
+     * <p>Export the metrics to a file on a fixed schedule: a Prometheus snapshot replaces
+     * the file, JSON lines are appended to it.</p>
+     * 
+     * @param format
+     * @param file
+     * @param period the time between two snapshots in ms
+     */
+    public static void startStatsExport(ACASStatsFormat format, File file, long period) {
+    	startStatsExport(new ACASStatsReporter.FileExporter(format, file), period);
+    }
+    
+    /**
+     * <p>Export the metrics to a local socket on a fixed schedule, the socket is connected
+     * again after an error.</p>
+     * 
+     * @param format
+     * @param socketName the name of the local socket in the abstract namespace
+     * @param period the time between two snapshots in ms
+     */
+    public static void startStatsExport(ACASStatsFormat format, String socketName, long period) {
+    	startStatsExport(new ACASStatsReporter.SocketExporter(format, socketName), period);
+    }
+    
+    public static void stopStatsExport() {
+    	synchronized (ACASCommunication.class) {
+    		if (ACASCommunication.sStatsReporter != null) {
+    			ACASCommunication.sStatsReporter.stop();
+    			ACASCommunication.sStatsReporter = null;
+    		}
+    	}
+    }
+    
+    /**
+     * <p>Get the callback time of a listener<p>
+     * 
+     * @param listener
+     * @return the snapshot, values in microseconds, null if the listener is not registered
+     */
+    public static ACASLatency getListenerLatency(ACASOnMessageReceivedListener listener) {
+    	if (!isInitiate()) {
+    		throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
     	}
-    	synchronized (mCommunication.mReceivedList) {
-    		ACASCommunication.sNumberMessageReceived = 0;
+    	return mCommunication.snapshotListenerLatency(listener);
+    }
+    
+    /**
+     * <p>Set the time a listener may spend in one callback. A listener over the budget,
+     * or still running past it when its next message arrives, is reported to the
+     * {@link com.acasframework.ACASOnSlowListener} and counted in the stats, then the
+     * policy is applied once until it is fast again.</p>
+     * 
+     * @param budget the time in ms, 0 for disable the watchdog which is the default
+     * @param policy the action on a slow listener
+     */
+    public static void setListenerBudget(long budget, ACASSlowListenerPolicy policy) {
+    	if (budget < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
     	}
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Set listener budget to {} ms, policy {}", budget, policy);
+    	}
+    	ACASCommunication.sSlowListenerPolicy = policy == null ? ACASSlowListenerPolicy.REPORT : policy;
+    	ACASCommunication.sListenerBudget = budget;
+    }
+    
+    public static long getListenerBudget() {
+    	return ACASCommunication.sListenerBudget;
+    }
+    
+    public static ACASSlowListenerPolicy getSlowListenerPolicy() {
+    	return ACASCommunication.sSlowListenerPolicy;
+    }
+    
+    /**
+     * <p>Set the time the messages of a slow listener are skipped with the
+     * {@link com.acasframework.ACASSlowListenerPolicy#SKIP} policy.</p>
+     * 
+     * @param time the time in ms, 10 s by default
+     */
+    public static void setListenerQuarantineTime(long time) {
+    	if (time < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	} else if (time == 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+    	}
+    	ACASCommunication.sListenerQuarantineTime = time;
+    }
+    
+    public static long getListenerQuarantineTime() {
+    	return ACASCommunication.sListenerQuarantineTime;
+    }
+    
+    /**
+     * <p>Set the listener notified of the slow message listeners<p>
+     * 
+     * @param listener the listener, null for remove it
+     */
+    public static void setOnSlowListener(ACASOnSlowListener listener) {
+    	ACASCommunication.sOnSlowListener = listener;
+    }
+    
+    /**
+     * <p>Set the lowest level logged by the framework when the debug mode is enabled,
+     * the message traffic is logged at {@link android.util.Log#DEBUG} and
+     * {@link android.util.Log#VERBOSE}<p>
+     * 
+     * @param level a {@link android.util.Log} level, {@link android.util.Log#INFO} by default
+     */
+    public static void setLogLevel(int level) {
+    	ACASLog.sLevel = level;
+    }
+    
+    public static int getLogLevel() {
+    	return ACASLog.sLevel;
+    }
+    
+    /**
+     * <p>Keep the last bus events in memory: sends, hand-overs to the system, receptions,
+     * duplicates, dispatches, drops and slow listeners. Recording an event does not
+     * allocate.</p>
+     * 
+     * @param numberEvent the number of events kept, 0 for disable the trace which is the default
+     */
+    public static void setTraceCapacity(int numberEvent) {
+    	if (numberEvent < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	ACASCommunication.sTrace = numberEvent == 0 ? null : new ACASTrace(numberEvent);
+    }
+    
+    /**
+     * <p>Get the events of the trace, oldest first, one per line<p>
+     * 
+     * @return the events, empty if the trace is disabled
+     */
+    public static String dumpTrace() {
+    	final ACASTrace trace = ACASCommunication.sTrace;
+    	final StringBuilder out = new StringBuilder();
+    	if (trace != null) {
+    		trace.dump(out);
+    	}
+    	return out.toString();
+    }
+    
+    public static void resetLatency() {
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Reset latency histograms");
+    	}
+    	ACASCommunication.sMetrics.reset();
     }
     
     public static void setStoredReceivMessageNumberMax(int numberMessage) {
@@ -387,16 +1233,391 @@ public class ACAS {
     	} else if (numberMessage == 0) {
     		throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
     	}
-    	if (DEBUG_MODE) {
-    		Log.i(TAG, "Set number max of received message to "+ numberMessage);
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Set number max of received message to {}", numberMessage);
     	}
     	ACASCommunication.sNumberMessageReceivedMax = numberMessage;
+    	if (isInitiate()) {
+    		synchronized (mCommunication.mReceivedStore) {
+    			mCommunication.mReceivedStore.setCapacity(numberMessage);
+    		}
+    	}
     }
     
     public static int getStoredReceivMessageNumberMax() {
     	return ACASCommunication.sNumberMessageReceivedMax;
     }
     
+    /**
+     * <p>Bound the receive history by the total size of the message extras, the oldest
+     * messages are evicted following the eviction policy when it is exceeded.</p>
+     * 
+     * @param numberBytes the maximum number of bytes, 0 for no limit
+     * @see {@link com.acasframework.ACAS#setStoredReceivEvictionPolicy(ACASEvictionPolicy)}
+     */
+    public static void setStoredReceivBytesMax(long numberBytes) {
+    	if (numberBytes < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Set number max of received bytes to {}", numberBytes);
+    	}
+    	ACASCommunication.sNumberBytesReceivedMax = numberBytes;
+    	if (isInitiate()) {
+    		synchronized (mCommunication.mReceivedStore) {
+    			mCommunication.mReceivedStore.setBytesMax(numberBytes);
+    		}
+    	}
+    }
+    
+    public static long getStoredReceivBytesMax() {
+    	return ACASCommunication.sNumberBytesReceivedMax;
+    }
+    
+    /**
+     * <p>Choose which message is evicted when the receive history is full.</p>
+     * 
+     * @param policy {@link com.acasframework.ACASEvictionPolicy#OLDEST_DELIVERED_FIRST} by default
+     */
+    public static void setStoredReceivEvictionPolicy(ACASEvictionPolicy policy) {
+    	if (policy == null) {
+    		policy = ACASEvictionPolicy.OLDEST_DELIVERED_FIRST;
+    	}
+    	ACASCommunication.sReceivedEvictionPolicy = policy;
+    	if (isInitiate()) {
+    		synchronized (mCommunication.mReceivedStore) {
+    			mCommunication.mReceivedStore.setPolicy(policy);
+    		}
+    	}
+    }
+    
+    /**
+     * <p>Get the number of message evicted from the full receive history during the last session<p>
+     * 
+     * @return the number of evicted message
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     */
+    public static long getEvictedReceivMessageNumber() {
+    	if (!isInitiate()) {
+    		throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+    	}
+    	synchronized (mCommunication.mReceivedStore) {
+    		return mCommunication.mReceivedStore.evictedCount();
+    	}
+    }
+    
+    /**
+     * <p>Set the maximum number of message waiting in the send queue.</p>
+     * 
+     * @param numberMessage the queue bound
+     * @see {@link com.acasframework.ACAS#setSendQueuePolicy(ACASQueuePolicy)}
+     */
+    public static void setSendQueueNumberMax(int numberMessage) {
+    	if (numberMessage < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	} else if (numberMessage == 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+    	}
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Set number max of queued send message to {}", numberMessage);
+    	}
+    	ACASCommunication.sSendQueueCapacity = numberMessage;
+    	if (isInitiate()) {
+    		mCommunication.mSendPipeline.setCapacity(numberMessage);
+    	}
+    }
+    
+    public static int getSendQueueNumberMax() {
+    	return ACASCommunication.sSendQueueCapacity;
+    }
+    
+    /**
+     * <p>Choose what happen when a message is sent while the send queue is full.</p>
+     * 
+     * @param policy {@link com.acasframework.ACASQueuePolicy#BLOCK} by default
+     */
+    public static void setSendQueuePolicy(ACASQueuePolicy policy) {
+    	if (policy == null) {
+    		policy = ACASQueuePolicy.BLOCK;
+    	}
+    	ACASCommunication.sSendQueuePolicy = policy;
+    	if (isInitiate()) {
+    		mCommunication.mSendPipeline.setPolicy(policy);
+    	}
+    }
+    
+    public static ACASQueuePolicy getSendQueuePolicy() {
+    	return ACASCommunication.sSendQueuePolicy;
+    }
+    
+    /**
+     * <p>Enable the batching of sent messages, the messages queued during the window are
+     * packed into one envelope broadcast, up to the maximum batch size.</p>
+     * 
+     * @param windowMs the time to wait for more messages in ms, 0 for disable batching
+     * @param maxBatchBytes the maximum size of the messages extras in one envelope
+     */
+    public static void setSendBatching(long windowMs, int maxBatchBytes) {
+    	if (windowMs < 0 || maxBatchBytes < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	} else if (maxBatchBytes == 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+    	}
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Set send batching window={}ms maxBytes={}", windowMs, maxBatchBytes);
+    	}
+    	ACASCommunication.sSendBatchWindow = windowMs;
+    	ACASCommunication.sSendBatchBytesMax = maxBatchBytes;
+    	if (isInitiate()) {
+    		mCommunication.mSendPipeline.setBatching(windowMs, maxBatchBytes);
+    	}
+    }
+    
+    public static long getSendBatchWindow() {
+    	return ACASCommunication.sSendBatchWindow;
+    }
+    
+    public static int getSendBatchBytesMax() {
+    	return ACASCommunication.sSendBatchBytesMax;
+    }
+    
+    /**
+     * <p>Choose how messages leave this application. When enable, a message is delivered
+     * only to its receiver package and a broadcast only to the mother, the children and
+     * this application. Otherwise every message is broadcast to the whole device.</p>
+     * <p>Broadcasts reach the whole device until the module list is known.</p>
+     * 
+     * @param targeted true by default
+     */
+    public static void setTargetedDelivery(boolean targeted) {
+    	if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+    		ACASLog.d(TAG, "Set targeted delivery {}", targeted);
+    	}
+    	ACASCommunication.sTargetedDelivery = targeted;
+    }
+    
+    public static boolean isTargetedDelivery() {
+    	return ACASCommunication.sTargetedDelivery;
+    }
+    
+    /**
+     * <p>Set the maximum number of requests waiting for a response.</p>
+     * 
+     * @param numberRequest the bound, 1024 by default
+     */
+    public static void setPendingRequestNumberMax(int numberRequest) {
+    	if (numberRequest < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	} else if (numberRequest == 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+    	}
+    	ACASCommunication.sPendingRequestMax = numberRequest;
+    	if (isInitiate()) {
+    		mCommunication.mRequestTracker.setPendingMax(numberRequest);
+    	}
+    }
+    
+    public static int getPendingRequestNumberMax() {
+    	return ACASCommunication.sPendingRequestMax;
+    }
+    
+    /**
+     * <p>Enable the credit based flow control: at most numberMessage messages are in flight
+     * from this module to each destination, the receiver grants them back once they are
+     * delivered to its listeners. The sends to a destination without credit wait in the
+     * send queue, which blocks or fails the callers once full following the send queue policy.</p>
+     * <p>All the modules must use the same window. Broadcasts and
+     * {@link com.acasframework.ACASPriority#HIGH} messages are not limited.</p>
+     * 
+     * @param numberMessage the window, 0 for disable the flow control which is the default
+     */
+    public static void setFlowControlWindow(int numberMessage) {
+    	if (numberMessage < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	ACASCommunication.sFlowControlWindow = numberMessage;
+    	if (isInitiate()) {
+    		mCommunication.mSendPipeline.setFlowWindow(numberMessage);
+    	}
+    }
+    
+    public static int getFlowControlWindow() {
+    	return ACASCommunication.sFlowControlWindow;
+    }
+    
+    /**
+     * <p>Set the number of received messages remembered for the duplicate suppression.</p>
+     * <p>Each sent message carries a unique sequence of its sender, a message received
+     * again within the window, after a redelivery or an outbox replay, is dropped before
+     * it is stored or dispatched. The memory used is fixed by the window.</p>
+     * 
+     * @param numberMessage the window, 0 for disable the suppression, 1024 by default
+     */
+    public static void setDuplicateWindow(int numberMessage) {
+    	if (numberMessage < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	ACASCommunication.sDuplicateWindow = numberMessage;
+    	if (isInitiate()) {
+    		mCommunication.setDuplicateWindow(numberMessage);
+    	}
+    }
+    
+    public static int getDuplicateWindow() {
+    	return ACASCommunication.sDuplicateWindow;
+    }
+    
+    /**
+     * <p>Set the size from which a binary payload is shared through a memory-mapped file
+     * instead of being copied into the message, only used once a large payload directory is set.</p>
+     * 
+     * @param numberBytes the threshold, 64 KB by default
+     */
+    public static void setLargePayloadThreshold(int numberBytes) {
+    	if (numberBytes < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	ACASCommunication.sLargePayloadThreshold = numberBytes;
+    }
+    
+    public static int getLargePayloadThreshold() {
+    	return ACASCommunication.sLargePayloadThreshold;
+    }
+    
+    /**
+     * <p>Set the directory of the large payload files, it must be readable and writable by
+     * all the modules. The private directories of an application can not be used.</p>
+     * <p>No directory is set by default and all the payloads are sent inline.</p>
+     * 
+     * @param directory the directory, null for send all the payloads inline
+     * @see {@link com.acasframework.ACAS#setLargePayloadThreshold(int)}
+     */
+    public static void setLargePayloadDirectory(File directory) {
+    	ACASCommunication.sSharedPayloadDirectory = directory;
+    }
+    
+    /**
+     * <p>Send the messages with a compact binary encoding instead of a parcelled bundle,
+     * all the modules must use a version of the library which can decode it.</p>
+     * <p>A message with an extra of a type not supported by the codec is still sent as a bundle.</p>
+     * 
+     * @param enabled true to use the binary codec, false by default
+     */
+    public static void setBinaryCodec(boolean enabled) {
+    	ACASCommunication.sBinaryCodec = enabled;
+    }
+    
+    public static boolean isBinaryCodec() {
+    	return ACASCommunication.sBinaryCodec;
+    }
+    
+    /**
+     * <p>Set the size from which the sent messages are deflated, the whole encoded message
+     * with the binary codec, otherwise the inline binary payload and each String or byte[]
+     * extra on its own.</p>
+     * <p>The data is sent uncompressed when it does not shrink.</p>
+     * 
+     * @param numberBytes the threshold, 0 to never compress which is the default
+     * @see {@link com.acasframework.ACAS#setBinaryCodec(boolean)}
+     */
+    public static void setCompressionThreshold(int numberBytes) {
+    	if (numberBytes < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	ACASCommunication.sCompressionThreshold = numberBytes;
+    }
+    
+    public static int getCompressionThreshold() {
+    	return ACASCommunication.sCompressionThreshold;
+    }
+    
+    /**
+     * <p>Persist the sent messages until they are handed to the system, so that they survive
+     * the death of the process and wait for a destination module which is not installed.</p>
+     * <p>The stored messages are sent again at the next start, a message can be received
+     * twice if the process dies just after sending it. The extras must be supported by
+     * the binary codec, the other messages are not persisted.</p>
+     * 
+     * @param enabled true to persist the messages, false by default
+     */
+    public static void setDurableSend(boolean enabled) {
+    	ACASCommunication.sDurableSend = enabled;
+    	if (isInitiate()) {
+    		mCommunication.setDurableSend(enabled);
+    	}
+    }
+    
+    public static boolean isDurableSend() {
+    	return ACASCommunication.sDurableSend;
+    }
+    
+    /**
+     * <p>Set the time during which the changes of the durable messages are collected and
+     * written in one transaction.</p>
+     * 
+     * @param intervalMs the interval in ms, 50 ms by default
+     */
+    public static void setDurableFlushInterval(long intervalMs) {
+    	if (intervalMs < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	ACASCommunication.sDurableFlushInterval = intervalMs;
+    	if (isInitiate()) {
+    		mCommunication.setDurableFlushInterval(intervalMs);
+    	}
+    }
+    
+    public static long getDurableFlushInterval() {
+    	return ACASCommunication.sDurableFlushInterval;
+    }
+    
+    /**
+     * <p>Journal the received messages into memory-mapped segment files, so that a listener
+     * can replay the recent messages after a restart of the application.</p>
+     * <p>The journal holds at most segmentNumberMax segments of segmentBytes, the oldest
+     * segment is dropped as a whole. With the journal the stored history can be kept small,
+     * see {@link com.acasframework.ACAS#setStoredReceivMessageNumberMax(int)}.</p>
+     * 
+     * @param directory the journal directory, null for disable the journal which is the default
+     * @param segmentBytes the size of one segment, 1 MB by default
+     * @param segmentNumberMax the number of kept segments, 8 by default
+     * @see {@link com.acasframework.ACAS#replayReceivedJournal(ACASOnMessageReceivedListener, int)}
+     */
+    public static void setReceivedJournal(File directory, int segmentBytes, int segmentNumberMax) {
+    	if (segmentBytes <= 0 || segmentNumberMax <= 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_ZERO_NUMBER);
+    	}
+    	ACASCommunication.sJournalDirectory = directory;
+    	ACASCommunication.sJournalSegmentBytes = segmentBytes;
+    	ACASCommunication.sJournalSegmentsMax = segmentNumberMax;
+    	if (isInitiate()) {
+    		mCommunication.setReceivedJournal(directory, segmentBytes, segmentNumberMax);
+    	}
+    }
+    
+    /**
+     * <p>Deliver again the most recent journaled messages to a listener, following its
+     * filter and its dispatch mode.</p>
+     * 
+     * @param listener a listener already added
+     * @param numberMessage the number of messages read from the journal
+     * @return the number of delivered messages
+     * @throws ACASNonInititateException
+     *             If library non initiate by
+     *             {@link com.acasframework.ACAS#initiate(Context, String)}
+     */
+    public static int replayReceivedJournal(ACASOnMessageReceivedListener listener, int numberMessage) {
+    	if (!isInitiate()) {
+    		throw new ACASNonInititateException(EXCEPTION_NON_INITIATE);
+    	}
+    	if (numberMessage < 0) {
+    		throw new ACASIllegalNumberException(EXCEPTION_NEGATIVE_NUMBER);
+    	}
+    	return mCommunication.replayReceivedJournal(listener, numberMessage);
+    }
+    
     public static int clearAllMessageList() {
     	return mCommunication.clearAllMessageList();
 	}
@@ -0,0 +1,21 @@
+package com.acasframework;
+
+/**
+ * <p>Received messages handed to a listener when it is registered.</p>
+ * 
+ * @see {@link com.acasframework.ACAS#setListenerBacklog(ACASBacklogMode, int)}
+ */
+public enum ACASBacklogMode {
+	/**
+	 * Only the messages received after the registration
+	 */
+	NONE,
+	/**
+	 * The stored messages not yet delivered to any listener, then the new ones
+	 */
+	UNDELIVERED,
+	/**
+	 * The last stored messages, delivered or not, then the new ones
+	 */
+	LAST
+}
@@ -1,7 +1,18 @@
 package com.acasframework;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.acasframework.exception.ACASInvalidKeyException;
 
@@ -18,32 +29,436 @@ class ACASCommunication {
 	static final String EXTRA_SENDER_ID = "com.acas.sources.EXTRA_SENDER_ID";
 	static final String EXTRA_RECEIVER_ID = "com.acas.sources.EXTRA_RECEIVER_ID";
 	static final String EXTRA_ID = "com.acas.sources.EXTRA_ID";
+	static final String EXTRA_ENVELOPE = "com.acas.sources.EXTRA_ENVELOPE";
+	static final String EXTRA_CORRELATION_ID = "com.acas.sources.EXTRA_CORRELATION_ID";
+	static final String EXTRA_RESPONSE_TO = "com.acas.sources.EXTRA_RESPONSE_TO";
+	static final String EXTRA_PAYLOAD = "com.acas.sources.EXTRA_PAYLOAD";
+	static final String EXTRA_SHARED_PAYLOAD = "com.acas.sources.EXTRA_SHARED_PAYLOAD";
+	static final String EXTRA_BINARY = "com.acas.sources.EXTRA_BINARY";
+	static final String EXTRA_PAYLOAD_LENGTH = "com.acas.sources.EXTRA_PAYLOAD_LENGTH";
+	static final String EXTRA_PRIORITY = "com.acas.sources.EXTRA_PRIORITY";
+	static final String EXTRA_SEND_SEQUENCE = "com.acas.sources.EXTRA_SEND_SEQUENCE";
+	static final String EXTRA_TOPIC = "com.acas.sources.EXTRA_TOPIC";
+	static final String EXTRA_DEFLATED_BYTES = "com.acas.sources.EXTRA_DEFLATED_BYTES";
+	static final String EXTRA_DEFLATED_STRINGS = "com.acas.sources.EXTRA_DEFLATED_STRINGS";
 	
-	ArrayList<ACASOnMessageReceivedListener> mListeners = new ArrayList<ACASOnMessageReceivedListener>();
-	ArrayList<ACASMessage> mSendedList = new ArrayList<ACASMessage>();
-	ArrayList<ACASMessage> mReceivedList = new ArrayList<ACASMessage>();
+	// Charset of the deflated String extras
+	static final String CHARSET = "UTF-8";
 	
-	static int sNumberMessageSended = 0;
-	static int sNumberMessageReceived = 0;
+	// Tag of the messages published on a topic, out of the int range of the public tags
+	static final long TAG_TOPIC = Long.MIN_VALUE + 1;
+	
+	// Number of messages removed under one lock by the clears
+	static final int CLEAR_BATCH = 256;
+	
+	// Counts the listeners which are not done yet with a message
+	private static final AtomicIntegerFieldUpdater<ACASMessage> sPendingDeliveries = AtomicIntegerFieldUpdater.newUpdater(ACASMessage.class, "mPendingDeliveries");
+	
+	final ACASRegistry<ACASSubscriber> mListeners = new ACASRegistry<ACASSubscriber>(new ACASSubscriber[0]);
+	final ACASDispatcher mDispatcher = new ACASDispatcher(this);
+	volatile ACASRoutingTable mRoutingTable = ACASRoutingTable.EMPTY;
+	final ACASMessageStore mReceivedStore = new ACASMessageStore(sNumberMessageReceivedMax, sNumberBytesReceivedMax, sReceivedEvictionPolicy);
+	
+	static final ACASCounter sNumberMessageSended = new ACASCounter();
+	static final ACASCounter sNumberMessageReceived = new ACASCounter();
+	static final ACASMetrics sMetrics = new ACASMetrics();
+	static ACASStatsReporter sStatsReporter;
+	static volatile ACASTrace sTrace;
+	// Multicast groups, the member arrays are never modified once put
+	static final HashMap<String, String[]> sGroups = new HashMap<String, String[]>();
 	static int sNumberMessageReceivedMax = 1000;
+	static long sNumberBytesReceivedMax = 0;
+	static ACASEvictionPolicy sReceivedEvictionPolicy = ACASEvictionPolicy.OLDEST_DELIVERED_FIRST;
+	static int sSendQueueCapacity = 1000;
+	static ACASQueuePolicy sSendQueuePolicy = ACASQueuePolicy.BLOCK;
+	static long sSendBatchWindow = 0;
+	static int sSendBatchBytesMax = 256 * 1024;
+	static ACASDispatchMode sListenerDispatchMode = ACASDispatchMode.MAIN;
+	static int sListenerQueueCapacity = 1000;
+	static ACASQueuePolicy sListenerQueuePolicy = ACASQueuePolicy.DROP_OLDEST;
+	static boolean sTargetedDelivery = true;
+	static int sPendingRequestMax = 1024;
+	static int sFlowControlWindow = 0;
+	static int sLargePayloadThreshold = 64 * 1024;
+	static File sSharedPayloadDirectory;
+	static long sSharedPayloadTtl = 60 * 1000;
+	static boolean sBinaryCodec = false;
+	static int sCompressionThreshold = 0;
+	static boolean sDurableSend = false;
+	static long sDurableFlushInterval = 50;
+	static File sJournalDirectory;
+	static int sJournalSegmentBytes = 1024 * 1024;
+	static int sJournalSegmentsMax = 8;
+	static int sDuplicateWindow = 1024;
+	static long sListenerBudget = 0;
+	static ACASBacklogMode sListenerBacklogMode = ACASBacklogMode.UNDELIVERED;
+	static int sListenerBacklogCount = 0;
+	static ACASSlowListenerPolicy sSlowListenerPolicy = ACASSlowListenerPolicy.REPORT;
+	static long sListenerQuarantineTime = 10 * 1000;
+	static ACASOnSlowListener sOnSlowListener;
+	
+	final ACASSendPipeline mSendPipeline = new ACASSendPipeline(this, sSendQueueCapacity, sSendQueuePolicy, sFlowControlWindow);
+	final ACASLaneQueue mSendedList = mSendPipeline.mQueue;
+	final ACASRequestTracker mRequestTracker = new ACASRequestTracker(sPendingRequestMax);
+	
+	// Number of shared payload written by the sender worker, old files are swept regularly
+	static final int SHARED_PAYLOAD_SWEEP_INTERVAL = 64;
+	private int mSharedPayloadCount = 0;
+	
+	// Only used by the sender worker
+	private final ACASMessageCodec mCodec = new ACASMessageCodec();
+	
+	// Packages reached by a broadcast, null until the module list is known
+	private volatile String[] mBroadcastPackages;
+	
+	// Durable store of the outbound messages, null when disabled
+	private volatile ACASOutbox mOutbox;
+	
+	// Journal of the received messages, null when disabled
+	private volatile ACASMessageJournal mReceivedJournal;
+	
+	// Unique sequence of the sent messages, random start so a restarted process does not reuse them
+	private final AtomicLong mNextSendSequence = new AtomicLong(new Random().nextLong() & Long.MAX_VALUE);
+	
+	// Last received messages, null when the duplicate suppression is disabled
+	private volatile ACASDuplicateFilter mDuplicateFilter;
+	
+	ACASCommunication() {
+		mSendPipeline.setBatching(sSendBatchWindow, sSendBatchBytesMax);
+		setDuplicateWindow(sDuplicateWindow);
+		if (sDurableSend) {
+			mOutbox = new ACASOutbox(this, sDurableFlushInterval);
+		}
+		if (sJournalDirectory != null) {
+			setReceivedJournal(sJournalDirectory, sJournalSegmentBytes, sJournalSegmentsMax);
+		}
+	}
+	
+	/**
+	 * Set the number of received messages remembered for the duplicate suppression
+	 * 
+	 * @param numberMessage
+	 *            The window, 0 for disable the suppression
+	 */
+	void setDuplicateWindow(int numberMessage) {
+		if (numberMessage == 0) {
+			mDuplicateFilter = null;
+			return;
+		}
+		final ACASDuplicateFilter filter = mDuplicateFilter;
+		if (filter == null) {
+			mDuplicateFilter = new ACASDuplicateFilter(numberMessage);
+		} else {
+			synchronized (filter) {
+				filter.setCapacity(numberMessage);
+			}
+		}
+	}
+	
+	/**
+	 * Get the callback time of a listener
+	 * 
+	 * @param listener
+	 * @return the snapshot, null if the listener is not registered
+	 */
+	ACASLatency snapshotListenerLatency(ACASOnMessageReceivedListener listener) {
+		final ACASSubscriber[] listeners = mListeners.snapshot();
+		for (ACASSubscriber subscriber : listeners) {
+			if (subscriber.mListener == listener) {
+				return subscriber.mCallbackLatency.snapshot();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Take a snapshot of the bus metrics
+	 * 
+	 * @return the snapshot
+	 */
+	ACASStats snapshotStats() {
+		final ACASSubscriber[] listeners = mListeners.snapshot();
+		int listenerQueueDepth = 0;
+		long listenerDroppedCount = 0;
+		long slowListenerCount = 0;
+		int quarantinedCount = 0;
+		for (ACASSubscriber listener : listeners) {
+			listenerQueueDepth += listener.queueSize();
+			listenerDroppedCount += listener.droppedCount();
+			slowListenerCount += listener.slowCount();
+			if (listener.isQuarantined()) {
+				quarantinedCount++;
+			}
+		}
+		final int storedCount;
+		final int undeliveredCount;
+		final long evictedCount;
+		synchronized (mReceivedStore) {
+			storedCount = mReceivedStore.size();
+			undeliveredCount = mReceivedStore.undeliveredSize();
+			evictedCount = mReceivedStore.evictedCount();
+		}
+		long duplicateCount = 0;
+		final ACASDuplicateFilter duplicateFilter = mDuplicateFilter;
+		if (duplicateFilter != null) {
+			synchronized (duplicateFilter) {
+				duplicateCount = duplicateFilter.duplicateCount();
+			}
+		}
+		final ACASMetrics metrics = sMetrics;
+		final ArrayList<ACASModule> modules = ACAS.mModuleList;
+		return new ACASStats(System.currentTimeMillis(), sNumberMessageSended.sum(), sNumberMessageReceived.sum(),
+				mSendPipeline.size(), mSendPipeline.parkedCount(), mSendPipeline.droppedCount(),
+				listeners.length, listenerQueueDepth, listenerDroppedCount, slowListenerCount, quarantinedCount, storedCount, undeliveredCount,
+				evictedCount, duplicateCount,
+				metrics.series(ACASLatencyKind.SEND).mTotal.snapshot(),
+				metrics.series(ACASLatencyKind.DISPATCH).mTotal.snapshot(),
+				metrics.series(ACASLatencyKind.CALLBACK).mTotal.snapshot(),
+				metrics.mModuleSync.snapshot(), metrics.mLastModuleSync,
+				modules == null ? 0 : modules.size());
+	}
+	
+	/**
+	 * Open the journal of the received messages
+	 * 
+	 * @param directory
+	 *            The journal directory, null for disable the journal
+	 * @param segmentBytes
+	 * @param segmentsMax
+	 *            At least 1
+	 */
+	synchronized void setReceivedJournal(File directory, int segmentBytes, int segmentsMax) {
+		if (directory != null && (segmentBytes <= 0 || segmentsMax < 1)) {
+			throw new IllegalArgumentException("Invalid journal segments " + segmentBytes + "x" + segmentsMax);
+		}
+		// Release the previous journal first, a new one may map the same segments
+		final ACASMessageJournal previous = mReceivedJournal;
+		mReceivedJournal = null;
+		if (previous != null) {
+			synchronized (previous) {
+				previous.close();
+			}
+		}
+		if (directory == null) {
+			return;
+		}
+		try {
+			mReceivedJournal = new ACASMessageJournal(directory, segmentBytes, segmentsMax);
+		} catch (IOException e) {
+			mReceivedJournal = null;
+			if (ACASLog.isLoggable(ACASLog.ERROR)) {
+				ACASLog.e(TAG, "Unable to open the received journal", e);
+			}
+		}
+	}
+	
+	/**
+	 * Deliver again the most recent journaled messages to a registered listener
+	 * 
+	 * @param listener
+	 * @param count
+	 *            The number of messages read from the journal
+	 * @return the number of messages queued, a full listener queue refuses the rest
+	 */
+	int replayReceivedJournal(ACASOnMessageReceivedListener listener, int count) {
+		final ACASMessageJournal journal = mReceivedJournal;
+		if (journal == null) {
+			return 0;
+		}
+		ACASSubscriber subscriber = null;
+		for (ACASSubscriber candidate : mListeners.snapshot()) {
+			if (candidate.mListener == listener) {
+				subscriber = candidate;
+				break;
+			}
+		}
+		if (subscriber == null) {
+			return 0;
+		}
+		final ArrayList<ACASMessage> messages;
+		synchronized (journal) {
+			messages = journal.readLast(count);
+		}
+		int delivered = 0;
+		for (ACASMessage message : messages) {
+			if (subscriber.matches(message) && offer(subscriber, message, true)) {
+				delivered++;
+			}
+		}
+		return delivered;
+	}
+	
+	/**
+	 * Enable or disable the durable store of the outbound messages
+	 * 
+	 * @param enabled
+	 */
+	synchronized void setDurableSend(boolean enabled) {
+		final ACASOutbox outbox = mOutbox;
+		if (enabled && outbox == null) {
+			mOutbox = new ACASOutbox(this, sDurableFlushInterval);
+		} else if (!enabled && outbox != null) {
+			mOutbox = null;
+			outbox.close();
+		}
+	}
+	
+	void setDurableFlushInterval(long flushInterval) {
+		final ACASOutbox outbox = mOutbox;
+		if (outbox != null) {
+			outbox.setFlushInterval(flushInterval);
+		}
+	}
+	
+	/**
+	 * Get the directory of the large payload files, there is no default one since the
+	 * private directories of the application are not readable by the other modules
+	 * 
+	 * @return the directory, or null if the payloads are sent inline
+	 */
+	static File getSharedPayloadDirectory() {
+		return sSharedPayloadDirectory;
+	}
 
 	/**
-	 * Add an listener for received messages
+	 * Add an listener for received messages, called with the default dispatch mode
 	 * 
 	 * @param listener
 	 */
 	public void setOnMessageReceivedListener(ACASOnMessageReceivedListener listener) {
-		mListeners.add(listener);
-		deliveryUndeliveredMessage();
+		setOnMessageReceivedListener(listener, sListenerDispatchMode, sListenerQueueCapacity, sListenerQueuePolicy);
+	}
+	
+	/**
+	 * Add an listener for received messages
+	 * 
+	 * @param listener
+	 * @param mode
+	 *            The thread on which the listener is called
+	 * @param capacity
+	 *            The maximum number of message waiting for this listener
+	 * @param policy
+	 *            The behaviour when the listener queue is full
+	 */
+	public void setOnMessageReceivedListener(ACASOnMessageReceivedListener listener, ACASDispatchMode mode, int capacity, ACASQueuePolicy policy) {
+		addSubscriber(mDispatcher.subscribe(listener, mode, capacity, policy));
+	}
+	
+	/**
+	 * Add an listener for received messages with a tag range
+	 * 
+	 * @param listener
+	 * @param tagMin
+	 * @param tagMax
+	 */
+	void setOnMessageReceivedListener(ACASOnMessageReceivedListener listener, long tagMin, long tagMax) {
+		addSubscriber(mDispatcher.subscribe(listener, sListenerDispatchMode, sListenerQueueCapacity, sListenerQueuePolicy).filterTag(tagMin, tagMax));
+	}
+	
+	/**
+	 * Add an listener for received messages of one sender
+	 * 
+	 * @param listener
+	 * @param idSender
+	 */
+	void setOnMessageReceivedListener(ACASOnMessageReceivedListener listener, String idSender) {
+		addSubscriber(mDispatcher.subscribe(listener, sListenerDispatchMode, sListenerQueueCapacity, sListenerQueuePolicy).filterSender(idSender));
+	}
+	
+	/**
+	 * Add an listener for received messages of the topics matching a filter
+	 * 
+	 * @param listener
+	 * @param topicFilter
+	 *            The segments of the filter
+	 */
+	void setOnMessageReceivedListener(ACASOnMessageReceivedListener listener, String[] topicFilter) {
+		addSubscriber(mDispatcher.subscribe(listener, sListenerDispatchMode, sListenerQueueCapacity, sListenerQueuePolicy).filterTopic(topicFilter));
+	}
+	
+	/**
+	 * Add an listener for received messages with its own backlog
+	 * 
+	 * @param listener
+	 * @param backlog
+	 *            The stored messages handed to the listener
+	 * @param backlogCount
+	 *            The number of messages with {@link ACASBacklogMode#LAST}
+	 */
+	void setOnMessageReceivedListener(ACASOnMessageReceivedListener listener, ACASBacklogMode backlog, int backlogCount) {
+		addSubscriber(mDispatcher.subscribe(listener, sListenerDispatchMode, sListenerQueueCapacity, sListenerQueuePolicy), backlog, backlogCount);
+	}
+	
+	/**
+	 * Register a subscriber with the default backlog
+	 * 
+	 * @param subscriber
+	 */
+	void addSubscriber(ACASSubscriber subscriber) {
+		addSubscriber(subscriber, sListenerBacklogMode, sListenerBacklogCount);
+	}
+	
+	/**
+	 * Register a subscriber and hand it its backlog
+	 * 
+	 * <p>The backlog, the cursor and the registration are taken under the store lock: a
+	 * stored message is either in the backlog or delivered live, never both nor none. The
+	 * live messages coming during the registration are held until the backlog is queued
+	 * ahead of them. Only the new subscriber receives the backlog.</p>
+	 * 
+	 * @param subscriber
+	 * @param backlog
+	 * @param backlogCount
+	 */
+	void addSubscriber(ACASSubscriber subscriber, ACASBacklogMode backlog, int backlogCount) {
+		final ArrayList<ACASMessage> messages = new ArrayList<ACASMessage>();
+		synchronized (mReceivedStore) {
+			if (backlog == ACASBacklogMode.UNDELIVERED) {
+				mReceivedStore.collectUndelivered(messages);
+			} else if (backlog == ACASBacklogMode.LAST) {
+				mReceivedStore.collectLast(backlogCount, messages);
+			}
+			subscriber.hold(mReceivedStore.lastSequence());
+			synchronized (mListeners) {
+				mListeners.add(subscriber);
+				mRoutingTable = new ACASRoutingTable(mListeners.snapshot());
+			}
+		}
+		
+		final ArrayList<ACASMessage> accepted = new ArrayList<ACASMessage>(messages.size());
+		for (ACASMessage message : messages) {
+			if (subscriber.matches(message)) {
+				sPendingDeliveries.incrementAndGet(message);
+				accepted.add(message);
+			}
+		}
+		subscriber.release(accepted);
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "New listener with {} backlog, {} message(s) delivered", backlog, accepted.size());
+		}
 	}
 	
 	/**
-	 * Delete an lister from list
+	 * Delete an lister from list, with all its subscriptions
 	 * 
 	 * @param listener
 	 */
 	public void removeOnMessageReceiverListener(ACASOnMessageReceivedListener listener) {
-		mListeners.remove(listener);
+		final ArrayList<ACASSubscriber> removed = new ArrayList<ACASSubscriber>();
+		synchronized (mListeners) {
+			final ACASSubscriber[] listeners = mListeners.snapshot();
+			for (int i = 0; i < listeners.length; i++) {
+				final ACASSubscriber elem = listeners[i];
+				if (elem.mListener == listener && mListeners.remove(elem)) {
+					removed.add(elem);
+				}
+			}
+			mRoutingTable = new ACASRoutingTable(mListeners.snapshot());
+		}
+		// Closed out of the lock, the dropped messages take the store lock
+		for (int i = 0; i < removed.size(); i++) {
+			removed.get(i).close();
+		}
 	}
 
 	/**
@@ -52,45 +467,78 @@ class ACASCommunication {
 	 * @param message
 	 */
 	public void onMessageReceiv(ACASMessage message) {
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "onMessageReceiv");
+		if (ACASLog.isLoggable(ACASLog.VERBOSE)) {
+			ACASLog.v(TAG, "onMessageReceiv");
 		}
 		
 		// Check the key validity
 		if (!ACAS.mSecurity.mIsValid) {
 			throw new ACASInvalidKeyException(EXCEPTION_INVALIDE_KEY);
 		}
+		message.mReceiveTime = System.nanoTime();
+		ACASTrace.event(ACASTrace.RECEIVE, message.mId, message.mIdSender);
 		
 		// Check if message is for us
 		if (message.mIdReceiver != ACASMessage.ID_BROADCAST && !message.mIdReceiver.equalsIgnoreCase(ACAS.mAppId)) {
-			if (ACAS.DEBUG_MODE) {
-				Log.i(TAG, "This message is not for us");
+			if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+				ACASLog.d(TAG, "This message is not for us");
 			}
+			message.release();
 			return;
 		}
 
-		// Save into received list
-		synchronized (mReceivedList) {
-			mReceivedList.add(message);
-			if (mReceivedList.size() >= sNumberMessageReceivedMax) {
-				if (ACAS.DEBUG_MODE) {
-					Log.i(TAG, "Received list contain more than "+ sNumberMessageReceivedMax +" messages...");
-				}
-				clearAllDeliveredMessageFromReceivList();
-				if (ACAS.DEBUG_MODE) {
-					Log.i(TAG, "Received list cleared from delivered message");
-				}
-				if (mReceivedList.size() >= sNumberMessageReceivedMax) {
-					if (ACAS.DEBUG_MODE) {
-						Log.i(TAG, "Received list always contain more than "+ sNumberMessageReceivedMax +" messages...");
-					}
-					mReceivedList.clear();
-					if (ACAS.DEBUG_MODE) {
-						Log.i(TAG, "Received list cleared !");
-					}
+		// Flow control messages are handled by the bus itself
+		final ACASFlowControl flowControl = mSendPipeline.mFlowControl;
+		if (message.mId == ACASFlowControl.TAG_CONTROL) {
+			onFlowControl(message);
+			return;
+		}
+		flowControl.onReceived(message);
+
+		// Drop the messages already received, a replayed or redelivered message keeps its sequence
+		final ACASDuplicateFilter duplicateFilter = mDuplicateFilter;
+		if (duplicateFilter != null && message.mSendSequence != 0) {
+			final boolean duplicate;
+			synchronized (duplicateFilter) {
+				duplicate = duplicateFilter.isDuplicate(message.mIdSender, message.mSendSequence);
+			}
+			if (duplicate) {
+				ACASTrace.event(ACASTrace.DUPLICATE, message.mId, message.mIdSender);
+				if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+					ACASLog.d(TAG, "Duplicate message tag={} from {} dropped", message.mId, message.mIdSender);
 				}
+				// The sender counted it in its window
+				sendControl(flowControl.onConsumed(message));
+				message.release();
+				return;
+			}
+		}
+
+		// Complete the pending request answered by this message
+		if (message.mResponseTo != 0 && mRequestTracker.complete(message)) {
+			if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+				ACASLog.d(TAG, "Response to request {} completed", message.mResponseTo);
+			}
+			sendControl(flowControl.onConsumed(message));
+			return;
+		}
+
+		// Save into received list, the evicted messages give back their credit
+		ArrayList<ACASMessage> grants = null;
+		sNumberMessageReceived.increment();
+		synchronized (mReceivedStore) {
+			final int evicted = mReceivedStore.add(message);
+			if (evicted > 0 && ACASLog.isLoggable(ACASLog.INFO)) {
+				ACASLog.i(TAG, "Received list full, {} message(s) evicted", evicted);
+			}
+			grants = drainEvictedCredits(grants);
+		}
+		sendGrants(grants);
+		final ACASMessageJournal journal = mReceivedJournal;
+		if (journal != null) {
+			synchronized (journal) {
+				journal.append(message);
 			}
-			sNumberMessageReceived++;
 		}
 
 		// Notify all listener
@@ -98,55 +546,168 @@ class ACASCommunication {
 	}
 	
 	/**
-	 * Use this for delivery all undelivered message to all alive listeners
+	 * Delivery one message to all alive listener subscribed to it, each listener is
+	 * called on its own executor
+	 * @param message
 	 */
-	private void deliveryUndeliveredMessage() {
-		synchronized (mReceivedList) {
-			Iterator<ACASMessage> itr = mReceivedList.iterator();
-			while (itr.hasNext()) {
-				final ACASMessage message = itr.next();
-				if (message == null) {
-					if (ACAS.DEBUG_MODE) {
-						Log.d(TAG, "Message is null, remove it.");
-					}
-					itr.remove();
-				} else {
-					deliveryMessage(message);
+	private void deliveryMessage(ACASMessage message) {
+		final ACASRoutingTable table = mRoutingTable;
+		// Taken for the dispatch, a listener done early does not end the delivery
+		sPendingDeliveries.incrementAndGet(message);
+		int nbrDelivery = offer(table.mAll, message, false);
+		if (message.mId != TAG_TOPIC) {
+			nbrDelivery += offer(table.byTag(message.mId), message, false);
+			nbrDelivery += offer(table.byRange(message.mId), message, false);
+		}
+		nbrDelivery += offer(table.bySender(message.mIdSender), message, true);
+		nbrDelivery += offer(table.byTopic(message), message, true);
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "Message tag={} delivered {} time(s)", message.mId, nbrDelivery);
+		}
+		if (nbrDelivery == 0 && ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "Message tag={} not delivered...", message.mId);
+		}
+		onListenerDone(message, false);
+	}
+	
+	/**
+	 * Called once a listener queue is done with a message, after the listener has
+	 * returned or when the message is dropped from the queue. The first listener which
+	 * ran marks the message delivered. A message dropped by all the queues only gives
+	 * back its credit, it is kept for the reads by tag and the sender must not wait for
+	 * a listener which may never come.
+	 * 
+	 * @param message
+	 * @param delivered
+	 *            true if the listener has been called
+	 */
+	void onListenerDone(ACASMessage message, boolean delivered) {
+		if (delivered) {
+			markDelivered(message);
+		}
+		if (sPendingDeliveries.decrementAndGet(message) != 0 || message.mDelivered) {
+			return;
+		}
+		final ACASMessage grant;
+		synchronized (mReceivedStore) {
+			grant = mSendPipeline.mFlowControl.onConsumed(message);
+		}
+		sendControl(grant);
+	}
+	
+	/**
+	 * Mark a message delivered to at least one listener and give back its credit
+	 * 
+	 * @param message
+	 */
+	private void markDelivered(ACASMessage message) {
+		final ACASMessage grant;
+		synchronized (mReceivedStore) {
+			if (message.mDelivered) {
+				return;
+			}
+			message.mDelivered = true;
+			mReceivedStore.markDelivered(message);
+			grant = mSendPipeline.mFlowControl.onConsumed(message);
+		}
+		sendControl(grant);
+	}
+	
+	/**
+	 * Turn the credits of the messages removed from the store into grants, must be
+	 * called under the store lock
+	 * 
+	 * @param grants
+	 *            The list receiving the grants, or null
+	 * @return the grants, null if none
+	 */
+	private ArrayList<ACASMessage> drainEvictedCredits(ArrayList<ACASMessage> grants) {
+		final ArrayList<ACASMessage> credits = mReceivedStore.mEvictedCredits;
+		for (int i = 0; i < credits.size(); i++) {
+			final ACASMessage grant = mSendPipeline.mFlowControl.onConsumed(credits.get(i));
+			if (grant != null) {
+				if (grants == null) {
+					grants = new ArrayList<ACASMessage>();
 				}
+				grants.add(grant);
+			}
+		}
+		credits.clear();
+		return grants;
+	}
+	
+	private void sendGrants(ArrayList<ACASMessage> grants) {
+		if (grants != null) {
+			for (ACASMessage grant : grants) {
+				sendControl(grant);
 			}
 		}
 	}
 	
 	/**
-	 * Delivery one message to all alive listener
+	 * Handle a flow control message from another module
+	 * 
 	 * @param message
 	 */
-	private void deliveryMessage(ACASMessage message) {
+	private void onFlowControl(ACASMessage message) {
+		final int kind = message.mExtras == null ? 0 : message.mExtras.getInt(ACASFlowControl.EXTRA_KIND, 0);
+		if (kind == ACASFlowControl.KIND_GRANT) {
+			mSendPipeline.onGrant(message);
+		} else if (kind == ACASFlowControl.KIND_PROBE) {
+			sendControl(mSendPipeline.mFlowControl.onProbe(message));
+		}
+	}
+	
+	/**
+	 * Send a flow control message, it never waits for room in the send queue
+	 * 
+	 * @param message
+	 *            The message or null
+	 */
+	private void sendControl(ACASMessage message) {
+		if (message != null) {
+			if (ACASLog.isLoggable(ACASLog.VERBOSE)) {
+				ACASLog.v(TAG, "Flow control to {}", message.mIdReceiver);
+			}
+			mSendPipeline.enqueueControl(message);
+		}
+	}
+	
+	/**
+	 * Queue a message to subscribers
+	 * 
+	 * @param subscribers
+	 * @param message
+	 * @param checkTag true if the tag range of the subscribers must be checked
+	 * @return the number of subscribers who accept the message
+	 */
+	private static int offer(ACASSubscriber[] subscribers, ACASMessage message, boolean checkTag) {
 		int nbrDelivery = 0;
-		Iterator<ACASOnMessageReceivedListener> itr = mListeners.iterator();
-		while (itr.hasNext()) {
-			final ACASOnMessageReceivedListener elem = itr.next();
-			if (elem == null) {
-				if (ACAS.DEBUG_MODE) {
-					Log.d(TAG, "Listener is null, remove it.");
-				}
-				itr.remove();
-			} else {
+		for (int i = 0; i < subscribers.length; i++) {
+			final ACASSubscriber subscriber = subscribers[i];
+			if ((!checkTag || subscriber.matches(message)) && offer(subscriber, message, false)) {
 				nbrDelivery++;
-				elem.onMessageReceived(message);
 			}
 		}
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "Message tag="+ message.mId +" delivered "+ nbrDelivery +" time(s)");
-		}
-		if (nbrDelivery > 0) {
-			if (ACAS.DEBUG_MODE) {
-				Log.i(TAG, "Message tag="+ message.mId +" has been delivered");
-			}
-			message.mDelivered = true;
-		} else if (ACAS.DEBUG_MODE) {
-			Log.w(TAG, "Message tag="+ message.mId +" not delivered...");
+		return nbrDelivery;
+	}
+	
+	/**
+	 * Queue a message to one subscriber, counted as pending until the listener is done
+	 * 
+	 * @param subscriber
+	 * @param message
+	 * @param replay
+	 *            true if the message is refused when the queue is full
+	 * @return true if the message has been queued
+	 */
+	private static boolean offer(ACASSubscriber subscriber, ACASMessage message, boolean replay) {
+		sPendingDeliveries.incrementAndGet(message);
+		if (subscriber.offer(message, replay)) {
+			return true;
 		}
+		sPendingDeliveries.decrementAndGet(message);
+		return false;
 	}
 	
 	/**
@@ -156,16 +717,22 @@ class ACASCommunication {
 	 * @return
 	 */
 	ACASMessage getMessageById(long messageId) {
-		synchronized (mReceivedList) {
-			Iterator<ACASMessage> itr = mReceivedList.iterator();
-			while (itr.hasNext()) {
-				final ACASMessage message = itr.next();
-				if (message.mId == messageId) {
-					return message;
-				}
-			}
+		synchronized (mReceivedStore) {
+			return mReceivedStore.getById(messageId);
+		}
+	}
+	
+	/**
+	 * Get previous message by sender and tag
+	 * 
+	 * @param idSender
+	 * @param messageId
+	 * @return
+	 */
+	ACASMessage getMessageBySenderAndId(String idSender, long messageId) {
+		synchronized (mReceivedStore) {
+			return mReceivedStore.getBySenderAndId(idSender, messageId);
 		}
-		return null;
 	}
 	
 	/**
@@ -174,11 +741,42 @@ class ACASCommunication {
 	 * @param messageId
 	 * @param idReceiver
 	 * @param extras
+	 * @return the completion handle of the send
 	 * @see {@link com.acasframework.ACASCommunication#send(ACASMessage)} for an advanced use
 	 */
-	void send(long messageId, String idReceiver, Bundle extras) {
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "send to idReceiver="+ idReceiver +" messageId="+ messageId);
+	ACASFuture<ACASMessage> send(long messageId, String idReceiver, Bundle extras) {
+		return send(messageId, idReceiver, extras, null);
+	}
+	
+	/**
+	 * Use for send one message with a binary payload to a particular receiver
+	 * 
+	 * @param messageId
+	 * @param idReceiver
+	 * @param extras
+	 * @param payload
+	 *            The binary payload, shared through a mapped file above the large payload threshold
+	 *            when a shared directory is set
+	 * @return the completion handle of the send
+	 */
+	ACASFuture<ACASMessage> send(long messageId, String idReceiver, Bundle extras, ByteBuffer payload) {
+		return send(messageId, idReceiver, extras, payload, ACASPriority.NORMAL);
+	}
+	
+	/**
+	 * Use for send one message with a binary payload and a priority to a particular receiver
+	 * 
+	 * @param messageId
+	 * @param idReceiver
+	 * @param extras
+	 * @param payload
+	 *            The binary payload or null
+	 * @param priority
+	 * @return the completion handle of the send
+	 */
+	ACASFuture<ACASMessage> send(long messageId, String idReceiver, Bundle extras, ByteBuffer payload, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "send to idReceiver={} messageId={}", idReceiver, messageId);
 		}
 		
 		// Create message
@@ -187,27 +785,52 @@ class ACASCommunication {
 		message.mId = messageId;
 		message.mIdSender = ACAS.mAppId;
 		message.mIdReceiver = idReceiver;
+		message.mPayload = payload;
+		message.mPriority = priority;
 
 		// Send message
-		send(message);
+		return send(message);
 	}
 	
 	/**
 	 * <p>Use for send an custom message</p>
 	 * <p>It's better to use {@link com.acasframework.ACASCommunication#send(long, String, Bundle)}</p>
 	 * 
+	 * <p>The message is queued and sent by a background worker, this method only
+	 * waits when the queue is full with the {@link ACASQueuePolicy#BLOCK} policy.</p>
+	 * 
 	 * @param message
+	 * @return the completion handle of the send
 	 * @see {@link com.acasframework.ACASCommunication#send(long, String, Bundle)}
 	 */
-	void send(ACASMessage message) {
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "send to idReceiver="+ message.mIdReceiver +" idSender="+ message.mIdSender +" messageId="+ message.mId);
+	ACASFuture<ACASMessage> send(ACASMessage message) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "send to idReceiver={} idSender={} messageId={}", message.mIdReceiver, message.mIdSender, message.mId);
 		}
-		synchronized (mSendedList) {
-			mSendedList.add(message);
-			sNumberMessageSended++;
+		// Refuse before queuing, a refused message must not go out later
+		if (!ACAS.mSecurity.mIsValid) {
+			throw new ACASInvalidKeyException(EXCEPTION_INVALIDE_KEY);
+		}
+		final ACASFuture<ACASMessage> future = new ACASFuture<ACASMessage>();
+		message.mSendFuture = future;
+		message.mSendTime = System.nanoTime();
+		while (message.mSendSequence == 0) {
+			message.mSendSequence = mNextSendSequence.incrementAndGet();
+		}
+		final ACASOutbox outbox = mOutbox;
+		// The members of a group are not kept by the outbox, a replay would reach everyone
+		if (outbox != null && message.mRecipients == null) {
+			outbox.add(message);
 		}
-		sendStack();
+		try {
+			mSendPipeline.enqueue(message);
+		} catch (RuntimeException e) {
+			releaseDurable(message);
+			throw e;
+		}
+		sNumberMessageSended.increment();
+		ACASTrace.event(ACASTrace.SEND, message.mId, message.mIdReceiver);
+		return future;
 	}
 
 	/**
@@ -215,11 +838,24 @@ class ACASCommunication {
 	 * 
 	 * @param messageId
 	 * @param extras
+	 * @return the completion handle of the send
 	 * @see {@link com.acasframework.ACASCommunication#broadcast(ACASMessage)} for an advanced use
 	 */
-	void broadcast(long messageId, Bundle extras) {
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "broadcast tag="+ messageId);
+	ACASFuture<ACASMessage> broadcast(long messageId, Bundle extras) {
+		return broadcast(messageId, extras, ACASPriority.NORMAL);
+	}
+	
+	/**
+	 * Use for send one message with a priority to all receiver
+	 * 
+	 * @param messageId
+	 * @param extras
+	 * @param priority
+	 * @return the completion handle of the send
+	 */
+	ACASFuture<ACASMessage> broadcast(long messageId, Bundle extras, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "broadcast tag={}", messageId);
 		}
 		
 		// Create broadcast message
@@ -228,9 +864,10 @@ class ACASCommunication {
 		message.mId = messageId;
 		message.mIdSender = ACAS.mAppId;
 		message.mIdReceiver = ACASMessage.ID_BROADCAST;
+		message.mPriority = priority;
 		
 		// Send message
-		send(message);
+		return send(message);
 	}
 	
 	/**
@@ -238,14 +875,214 @@ class ACASCommunication {
 	 * <p>It's better to use {@link com.acasframework.ACASCommunication#broadcast(long, Bundle)}</p>
 	 * 
 	 * @param message
+	 * @return the completion handle of the send
 	 * @see {@link com.acasframework.ACASCommunication#broadcast(long, Bundle)}
 	 */
-	void broadcast(ACASMessage message) {
+	ACASFuture<ACASMessage> broadcast(ACASMessage message) {
 		// Add broadcast tag
 		message.mIdReceiver = ACASMessage.ID_BROADCAST;
 
 		// Send message
-		send(message);
+		return send(message);
+	}
+	
+	/**
+	 * Use for publish one message on a topic to all receiver
+	 * 
+	 * @param topic
+	 * @param extras
+	 * @param priority
+	 * @return the completion handle of the send
+	 */
+	ACASFuture<ACASMessage> publish(String topic, Bundle extras, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "publish topic={}", topic);
+		}
+		
+		// Create topic message
+		final ACASMessage message = new ACASMessage();
+		message.mExtras = extras;
+		message.mId = TAG_TOPIC;
+		message.mIdSender = ACAS.mAppId;
+		message.mIdReceiver = ACASMessage.ID_BROADCAST;
+		message.mTopic = topic;
+		message.mPriority = priority;
+		
+		// Send message
+		return send(message);
+	}
+	
+	/**
+	 * <p>Use for send one message to the members of a group</p>
+	 * <p>The message is built and encoded once, then handed to the system once per member
+	 * package, or inside the envelope of each member when batching is enabled. A large
+	 * payload is shared by all the members through one mapped file.</p>
+	 * 
+	 * @param group
+	 * @param messageId
+	 * @param extras
+	 * @param payload
+	 *            The binary payload or null
+	 * @param priority
+	 * @return the completion handle of the send
+	 * @throws IllegalArgumentException
+	 *             If the group has no member
+	 */
+	ACASFuture<ACASMessage> sendToGroup(String group, long messageId, Bundle extras, ByteBuffer payload, ACASPriority priority) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "sendToGroup group={} messageId={}", group, messageId);
+		}
+		final String[] members = getGroup(group);
+		if (members == null) {
+			throw new IllegalArgumentException("Unknown group " + group);
+		}
+		
+		// Create group message, received like a broadcast by the members
+		final ACASMessage message = new ACASMessage();
+		message.mExtras = extras;
+		message.mId = messageId;
+		message.mIdSender = ACAS.mAppId;
+		message.mIdReceiver = ACASMessage.ID_BROADCAST;
+		message.mRecipients = members;
+		message.mPayload = payload;
+		message.mPriority = priority;
+		
+		// Send message
+		return send(message);
+	}
+	
+	/**
+	 * Set the members of a group, an empty member list removes the group
+	 * 
+	 * @param group
+	 * @param members
+	 *            The module ids, the duplicates and null ids are ignored
+	 */
+	static void setGroup(String group, Collection<String> members) {
+		final LinkedHashSet<String> unique = new LinkedHashSet<String>();
+		for (String member : members) {
+			if (member != null) {
+				unique.add(member);
+			}
+		}
+		synchronized (sGroups) {
+			if (unique.isEmpty()) {
+				sGroups.remove(group);
+			} else {
+				sGroups.put(group, unique.toArray(new String[unique.size()]));
+			}
+		}
+	}
+	
+	/**
+	 * Add a member to a group, the group is created if needed
+	 * 
+	 * @param group
+	 * @param member
+	 * @return true if the member was not in the group
+	 */
+	static boolean addToGroup(String group, String member) {
+		if (member == null) {
+			return false;
+		}
+		synchronized (sGroups) {
+			final String[] members = sGroups.get(group);
+			if (members == null) {
+				sGroups.put(group, new String[] { member });
+				return true;
+			}
+			for (String current : members) {
+				if (current.equals(member)) {
+					return false;
+				}
+			}
+			final String[] added = new String[members.length + 1];
+			System.arraycopy(members, 0, added, 0, members.length);
+			added[members.length] = member;
+			sGroups.put(group, added);
+			return true;
+		}
+	}
+	
+	/**
+	 * Remove a member from a group, the group is removed with its last member
+	 * 
+	 * @param group
+	 * @param member
+	 * @return true if the member was in the group
+	 */
+	static boolean removeFromGroup(String group, String member) {
+		synchronized (sGroups) {
+			final String[] members = sGroups.get(group);
+			if (members == null) {
+				return false;
+			}
+			for (int i = 0; i < members.length; i++) {
+				if (members[i].equals(member)) {
+					if (members.length == 1) {
+						sGroups.remove(group);
+						return true;
+					}
+					final String[] removed = new String[members.length - 1];
+					System.arraycopy(members, 0, removed, 0, i);
+					System.arraycopy(members, i + 1, removed, i, removed.length - i);
+					sGroups.put(group, removed);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	static boolean removeGroup(String group) {
+		synchronized (sGroups) {
+			return sGroups.remove(group) != null;
+		}
+	}
+	
+	/**
+	 * Get the members of a group, the returned array must not be modified
+	 * 
+	 * @param group
+	 * @return the module ids, or null if the group does not exist
+	 */
+	static String[] getGroup(String group) {
+		synchronized (sGroups) {
+			return sGroups.get(group);
+		}
+	}
+	
+	/**
+	 * <p>Use for send a message and wait for its response</p>
+	 * 
+	 * @param messageId
+	 * @param idReceiver
+	 * @param extras
+	 * @param timeout
+	 *            The time to wait for the response in ms
+	 * @return the future response, failed with a {@link java.util.concurrent.TimeoutException} when no response came in time
+	 */
+	ACASFuture<ACASMessage> request(long messageId, String idReceiver, Bundle extras, long timeout) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "request to idReceiver={} messageId={}", idReceiver, messageId);
+		}
+		
+		// Create request message
+		final ACASMessage message = new ACASMessage();
+		message.mExtras = extras;
+		message.mId = messageId;
+		message.mIdSender = ACAS.mAppId;
+		message.mIdReceiver = idReceiver;
+		
+		// Wait for the response before sending, it may come back quickly
+		final ACASRequestTracker.Pending pending = mRequestTracker.register(message, timeout);
+		try {
+			send(message);
+		} catch (RuntimeException e) {
+			mRequestTracker.abort(pending, e);
+			throw e;
+		}
+		return pending.mFuture;
 	}
 	
 	/**
@@ -255,8 +1092,8 @@ class ACASCommunication {
 	 * @param extras
 	 */
 	void respond(ACASMessage message, Bundle extras) {
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "respond to "+ message.mIdSender +" tag="+ message.mId);
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "respond to {} tag={}", message.mIdSender, message.mId);
 		}
 		
 		// Create response message
@@ -265,37 +1102,365 @@ class ACASCommunication {
 		response.mId = message.mId;
 		response.mIdSender = ACAS.mAppId;
 		response.mIdReceiver = message.mIdSender;
+		response.mResponseTo = message.mCorrelationId;
+		response.mPriority = message.mPriority;
 		
 		// Send response
 		send(response);
 	}
 
 	/**
-	 * Use for send all message in the stack
+	 * Use for send all message in the stack, the sender worker drains it in background
 	 */
 	void sendStack() {
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "sendStack");
+		if (ACASLog.isLoggable(ACASLog.VERBOSE)) {
+			ACASLog.v(TAG, "sendStack");
 		}
 		if (!ACAS.mSecurity.mIsValid) {
 			throw new ACASInvalidKeyException("The keyApi is not set or invalid");
 		}
-		synchronized (mSendedList) {
-			Iterator<ACASMessage> itr = mSendedList.iterator();
-			while (itr.hasNext()) {
-				final ACASMessage message = itr.next();
-				if (ACAS.DEBUG_MODE) {
-					Log.i(TAG, "> Tag="+ message.mId +" receiver="+ message.mIdReceiver + " sender="+ message.mIdSender);
+		mSendPipeline.wakeUp();
+	}
+	
+	/**
+	 * Hand one message to the system, called from the sender worker
+	 * 
+	 * @param message
+	 */
+	void transmit(ACASMessage message) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "> Tag={} receiver={} sender={}", message.mId, message.mIdReceiver, message.mIdSender);
+		}
+		final String[] packages = getRecipientPackages(message);
+		final Intent intent = new Intent();
+		intent.setAction(ACAS.ACTION_MESSAGE);
+		intent.putExtras(buildTransportExtras(message, packages));
+		if (packages == null) {
+			ACAS.mContext.sendBroadcast(intent);
+			return;
+		}
+		for (String pkg : packages) {
+			intent.setPackage(pkg);
+			ACAS.mContext.sendBroadcast(intent);
+		}
+	}
+	
+	/**
+	 * Hand several messages to the system in one envelope broadcast per recipient package,
+	 * called from the sender worker
+	 * 
+	 * @param messages
+	 */
+	void transmitBatch(ArrayList<ACASMessage> messages) {
+		if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+			ACASLog.d(TAG, "> Envelope of {} messages", messages.size());
+		}
+		final LinkedHashMap<String, ArrayList<Bundle>> byPackage = new LinkedHashMap<String, ArrayList<Bundle>>();
+		ArrayList<Bundle> unknown = null;
+		for (ACASMessage message : messages) {
+			final String[] packages = getRecipientPackages(message);
+			final Bundle entry = buildTransportExtras(message, packages);
+			if (packages == null) {
+				if (unknown == null) {
+					unknown = new ArrayList<Bundle>();
 				}
-				final Intent intent = new Intent();
-				intent.setAction(ACAS.ACTION_MESSAGE);
-				intent.putExtras(message.mExtras);
-				intent.putExtra(EXTRA_RECEIVER_ID, message.mIdReceiver);
-				intent.putExtra(EXTRA_SENDER_ID, message.mIdSender);
-				intent.putExtra(EXTRA_ID, message.mId);
-				ACAS.mContext.sendBroadcast(intent);
-				itr.remove();
+				unknown.add(entry);
+				continue;
 			}
+			for (String pkg : packages) {
+				ArrayList<Bundle> entries = byPackage.get(pkg);
+				if (entries == null) {
+					entries = new ArrayList<Bundle>();
+					byPackage.put(pkg, entries);
+				}
+				entries.add(entry);
+			}
+		}
+		for (Map.Entry<String, ArrayList<Bundle>> entry : byPackage.entrySet()) {
+			sendEnvelope(entry.getKey(), entry.getValue());
+		}
+		if (unknown != null) {
+			sendEnvelope(null, unknown);
+		}
+	}
+	
+	/**
+	 * Build the extras sent for a message: the user extras, the routing data and the payload,
+	 * or only the encoded message when the binary codec is enabled
+	 * 
+	 * @param message
+	 * @param packages
+	 *            The recipient packages, or null for the whole device
+	 * @return the extras
+	 */
+	private Bundle buildTransportExtras(ACASMessage message, String[] packages) {
+		final String sharedPayload = message.mPayload == null ? null : sharePayload(message.mPayload, packages);
+		if (sBinaryCodec) {
+			final byte[] encoded = mCodec.encode(message, sharedPayload, sCompressionThreshold);
+			if (encoded != null) {
+				final Bundle extras = new Bundle();
+				extras.putByteArray(EXTRA_BINARY, encoded);
+				return extras;
+			}
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Extras of message tag={} not supported by the binary codec, send a bundle", message.mId);
+			}
+		}
+		final Bundle extras = message.mExtras == null ? new Bundle() : new Bundle(message.mExtras);
+		if (sCompressionThreshold > 0 && message.mExtras != null) {
+			deflateExtras(extras);
+		}
+		extras.putString(EXTRA_RECEIVER_ID, message.mIdReceiver);
+		extras.putString(EXTRA_SENDER_ID, message.mIdSender);
+		extras.putLong(EXTRA_ID, message.mId);
+		if (message.mCorrelationId != 0) {
+			extras.putLong(EXTRA_CORRELATION_ID, message.mCorrelationId);
+		}
+		if (message.mResponseTo != 0) {
+			extras.putLong(EXTRA_RESPONSE_TO, message.mResponseTo);
+		}
+		if (message.mPriority != ACASPriority.NORMAL) {
+			extras.putInt(EXTRA_PRIORITY, message.mPriority.ordinal());
+		}
+		if (message.mSendSequence != 0) {
+			extras.putLong(EXTRA_SEND_SEQUENCE, message.mSendSequence);
+		}
+		if (message.mTopic != null) {
+			extras.putString(EXTRA_TOPIC, message.mTopic);
+		}
+		if (sharedPayload != null) {
+			extras.putString(EXTRA_SHARED_PAYLOAD, sharedPayload);
+		} else if (message.mPayload != null) {
+			putPayload(extras, message.mPayload);
+		}
+		return extras;
+	}
+	
+	/**
+	 * Deflate the String and byte[] user extras above the compression threshold, each one
+	 * is replaced by its compressed bytes and its original byte length is kept in a marker
+	 * bundle
+	 */
+	private void deflateExtras(Bundle extras) {
+		final ACASCompressor compressor = mCodec.mCompressor;
+		Bundle deflatedBytes = null;
+		Bundle deflatedStrings = null;
+		final String[] keys = extras.keySet().toArray(new String[extras.size()]);
+		for (String key : keys) {
+			final Object value = extras.get(key);
+			final byte[] data;
+			if (value instanceof byte[]) {
+				data = (byte[]) value;
+			} else if (value instanceof String && ((String) value).length() * 3 >= sCompressionThreshold) {
+				try {
+					data = ((String) value).getBytes(CHARSET);
+				} catch (UnsupportedEncodingException e) {
+					continue;
+				}
+			} else {
+				continue;
+			}
+			if (data.length < sCompressionThreshold) {
+				continue;
+			}
+			final int compressed = compressor.deflate(data, 0, data.length);
+			if (compressed < 0) {
+				continue;
+			}
+			final byte[] deflated = new byte[compressed];
+			System.arraycopy(compressor.buffer(), 0, deflated, 0, compressed);
+			extras.putByteArray(key, deflated);
+			if (value instanceof String) {
+				if (deflatedStrings == null) {
+					deflatedStrings = new Bundle();
+				}
+				deflatedStrings.putInt(key, data.length);
+			} else {
+				if (deflatedBytes == null) {
+					deflatedBytes = new Bundle();
+				}
+				deflatedBytes.putInt(key, data.length);
+			}
+		}
+		if (deflatedBytes != null) {
+			extras.putBundle(EXTRA_DEFLATED_BYTES, deflatedBytes);
+		}
+		if (deflatedStrings != null) {
+			extras.putBundle(EXTRA_DEFLATED_STRINGS, deflatedStrings);
+		}
+	}
+	
+	/**
+	 * Put a binary payload inline, deflated above the compression threshold with its
+	 * original length as flag
+	 */
+	private void putPayload(Bundle extras, ByteBuffer payload) {
+		final int length = payload.remaining();
+		final byte[] data;
+		final int offset;
+		if (payload.hasArray()) {
+			data = payload.array();
+			offset = payload.arrayOffset() + payload.position();
+		} else {
+			data = new byte[length];
+			payload.duplicate().get(data);
+			offset = 0;
+		}
+		if (sCompressionThreshold > 0 && length >= sCompressionThreshold) {
+			final ACASCompressor compressor = mCodec.mCompressor;
+			final int compressed = compressor.deflate(data, offset, length);
+			if (compressed >= 0) {
+				final byte[] deflated = new byte[compressed];
+				System.arraycopy(compressor.buffer(), 0, deflated, 0, compressed);
+				extras.putByteArray(EXTRA_PAYLOAD, deflated);
+				extras.putInt(EXTRA_PAYLOAD_LENGTH, length);
+				return;
+			}
+		}
+		if (offset == 0 && data.length == length) {
+			extras.putByteArray(EXTRA_PAYLOAD, data);
+		} else {
+			final byte[] copy = new byte[length];
+			System.arraycopy(data, offset, copy, 0, length);
+			extras.putByteArray(EXTRA_PAYLOAD, copy);
+		}
+	}
+	
+	/**
+	 * Write a binary payload into a shared file when it reaches the large payload threshold
+	 * and a shared directory is set
+	 * 
+	 * @return the path of the shared file, or null to send the payload inline
+	 */
+	private String sharePayload(ByteBuffer payload, String[] packages) {
+		final File directory = getSharedPayloadDirectory();
+		if (directory == null || payload.remaining() < sLargePayloadThreshold) {
+			return null;
+		}
+		// Without the recipient list, the file is only removed by the sweep
+		final int recipients = packages == null ? Integer.MAX_VALUE : packages.length;
+		try {
+			final File file = ACASSharedPayload.write(directory, payload, recipients);
+			if (++mSharedPayloadCount % SHARED_PAYLOAD_SWEEP_INTERVAL == 0) {
+				ACASSharedPayload.sweep(directory, sSharedPayloadTtl);
+			}
+			return file.getAbsolutePath();
+		} catch (IOException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Unable to share the payload, send it inline: {}", e);
+			}
+			return null;
+		}
+	}
+	
+	private void sendEnvelope(String pkg, ArrayList<Bundle> entries) {
+		final Intent intent = new Intent();
+		intent.setAction(ACAS.ACTION_MESSAGE);
+		intent.putExtra(EXTRA_ENVELOPE, entries.toArray(new Bundle[entries.size()]));
+		if (pkg != null) {
+			intent.setPackage(pkg);
+		}
+		ACAS.mContext.sendBroadcast(intent);
+	}
+	
+	/**
+	 * Get the packages which must receive a message
+	 * 
+	 * @param message
+	 * @return the packages, or null for a broadcast to the whole device
+	 */
+	String[] getRecipientPackages(ACASMessage message) {
+		// A group message never reaches the other modules
+		if (message.mRecipients != null) {
+			return message.mRecipients;
+		}
+		if (!sTargetedDelivery) {
+			return null;
+		}
+		if (message.mIdReceiver != ACASMessage.ID_BROADCAST) {
+			return new String[] { message.mIdReceiver };
+		}
+		return mBroadcastPackages;
+	}
+	
+	/**
+	 * Compute the packages reached by a broadcast: the mother, the children and this application.
+	 * Use it each time the module list changes.
+	 */
+	void updateBroadcastPackages() {
+		final ArrayList<ACASModule> moduleList = ACAS.mModuleList;
+		if (moduleList == null || moduleList.isEmpty()) {
+			mBroadcastPackages = null;
+			return;
+		}
+		final LinkedHashSet<String> packages = new LinkedHashSet<String>();
+		if (ACAS.mMother != null && ACAS.mMother.mPackage != null) {
+			packages.add(ACAS.mMother.mPackage);
+		}
+		for (ACASModule module : moduleList) {
+			if (module.mPackage != null) {
+				packages.add(module.mPackage);
+			}
+		}
+		packages.add(ACAS.mAppId);
+		mBroadcastPackages = packages.toArray(new String[packages.size()]);
+		if (ACASLog.isLoggable(ACASLog.INFO)) {
+			ACASLog.i(TAG, "Broadcast reach {} package(s)", mBroadcastPackages.length);
+		}
+		final ACASOutbox outbox = mOutbox;
+		if (outbox != null) {
+			outbox.replayDeferred();
+		}
+	}
+	
+	/**
+	 * Keep a durable message for a module which is not installed until the module list changes,
+	 * called from the sender worker
+	 * 
+	 * @param message
+	 * @return true if the message is kept and must not be sent now
+	 */
+	boolean deferIfUnreachable(ACASMessage message) {
+		final ACASOutbox outbox = mOutbox;
+		if (outbox == null || message.mOutboxId == 0 || message.mIdReceiver == ACASMessage.ID_BROADCAST) {
+			return false;
+		}
+		final String[] packages = mBroadcastPackages;
+		if (packages == null) {
+			return false;
+		}
+		for (String pkg : packages) {
+			if (pkg.equals(message.mIdReceiver)) {
+				return false;
+			}
+		}
+		// Give back the credit taken for it, the replay takes a new one
+		mSendPipeline.refund(message);
+		outbox.defer(message);
+		return true;
+	}
+	
+	/**
+	 * Remove a message from the durable store once it has been sent or cancelled
+	 * 
+	 * @param message
+	 */
+	void releaseDurable(ACASMessage message) {
+		final ACASOutbox outbox = mOutbox;
+		if (outbox != null) {
+			outbox.remove(message);
+		}
+	}
+	
+	/**
+	 * Cancel the completion handle of a message removed from the send list
+	 * 
+	 * @param message
+	 */
+	private void cancelSend(ACASMessage message) {
+		releaseDurable(message);
+		if (message.mSendFuture != null) {
+			message.mSendFuture.cancel(false);
 		}
 	}
 	
@@ -312,22 +1477,26 @@ class ACASCommunication {
 	 * Use this method for clear all message from the received list
 	 */
 	int clearReceivedMessageList() {
-		synchronized (mReceivedList) {
-			final int delNbr = mReceivedList.size();
-			mReceivedList.clear();
-			return delNbr;
+		final int delNbr;
+		final ArrayList<ACASMessage> grants;
+		synchronized (mReceivedStore) {
+			delNbr = mReceivedStore.size();
+			mReceivedStore.clear();
+			grants = drainEvictedCredits(null);
 		}
+		sendGrants(grants);
+		return delNbr;
 	}
 	
 	/**
 	 * Use this method for clear all message from the send list
 	 */
 	int clearSendedMessageList() {
-		synchronized (mSendedList) {
-			final int delNbr = mSendedList.size();
-			mSendedList.clear();
-			return delNbr;
+		final ArrayList<ACASMessage> removed = mSendPipeline.clear();
+		for (ACASMessage message : removed) {
+			cancelSend(message);
 		}
+		return removed.size();
 	}
 	
 	int clearAllDeliveredMessage() {
@@ -336,34 +1505,15 @@ class ACASCommunication {
 		return delNbr;
 	}
 	
+	/**
+	 * Queued messages are not delivered yet, there is nothing to remove
+	 */
 	int clearAllDeliveredMessageFromSendList() {
-		int delNbr = 0;
-		synchronized (mSendedList) {
-			Iterator<ACASMessage> itr = mSendedList.iterator();
-			while (itr.hasNext()) {
-				final ACASMessage message = itr.next();
-				if (message.isDelevered()) {
-					itr.remove();
-					delNbr++;
-				}
-			}
-		}
-		return delNbr;
+		return 0;
 	}
 	
 	int clearAllDeliveredMessageFromReceivList() {
-		int delNbr = 0;
-		synchronized (mReceivedList) {
-			Iterator<ACASMessage> itr = mReceivedList.iterator();
-			while (itr.hasNext()) {
-				final ACASMessage message = itr.next();
-				if (message.isDelevered()) {
-					itr.remove();
-					delNbr++;
-				}
-			}
-		}
-		return delNbr;
+		return clearReceivedByStatus(true);
 	}
 	
 	int clearAllUndeliveredMessage() {
@@ -372,32 +1522,44 @@ class ACASCommunication {
 		return delNbr;
 	}
 	
+	/**
+	 * All the queued messages are undelivered
+	 */
 	int clearAllUndeliveredMessageFromSendList() {
-		int delNbr = 0;
-		synchronized (mSendedList) {
-			Iterator<ACASMessage> itr = mSendedList.iterator();
-			while (itr.hasNext()) {
-				final ACASMessage message = itr.next();
-				if (!message.isDelevered()) {
-					itr.remove();
-					delNbr++;
-				}
-			}
-		}
-		return delNbr;
+		return clearSendedMessageList();
 	}
 	
 	int clearAllUndeliveredMessageFromReceivList() {
+		return clearReceivedByStatus(false);
+	}
+	
+	/**
+	 * Remove the received messages of one delivery status, by batches so that the
+	 * reception is not held during the whole clear
+	 * 
+	 * @param delivered
+	 * @return the number of removed messages
+	 */
+	private int clearReceivedByStatus(boolean delivered) {
+		int remaining;
+		synchronized (mReceivedStore) {
+			// Messages received during the clear are kept
+			remaining = delivered ? mReceivedStore.deliveredSize() : mReceivedStore.undeliveredSize();
+		}
 		int delNbr = 0;
-		synchronized (mReceivedList) {
-			Iterator<ACASMessage> itr = mReceivedList.iterator();
-			while (itr.hasNext()) {
-				final ACASMessage message = itr.next();
-				if (!message.isDelevered()) {
-					itr.remove();
-					delNbr++;
-				}
+		while (remaining > 0) {
+			final int removed;
+			final ArrayList<ACASMessage> grants;
+			synchronized (mReceivedStore) {
+				removed = mReceivedStore.removeByStatus(delivered, Math.min(remaining, CLEAR_BATCH));
+				grants = drainEvictedCredits(null);
+			}
+			sendGrants(grants);
+			if (removed == 0) {
+				break;
 			}
+			delNbr += removed;
+			remaining -= removed;
 		}
 		return delNbr;
 	}
@@ -0,0 +1,97 @@
+package com.acasframework;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Deflate compression of message data with a reused deflater, inflater and output
+ * buffer, so that compressing a message does not allocate.</p>
+ * <p>One compressor is owned by one thread at a time, it is not thread safe.</p>
+ */
+class ACASCompressor {
+
+	static final String TAG = ACASCompressor.class.getSimpleName();
+
+	static final int INITIAL_CAPACITY = 16 * 1024;
+
+	// Highest expansion of deflated data, a larger announced length is forged
+	static final int INFLATE_RATIO_MAX = 1032;
+
+	private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+	private final Inflater mInflater = new Inflater();
+	private byte[] mBuffer = new byte[INITIAL_CAPACITY];
+
+	/**
+	 * Compress data into the reused buffer
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return the compressed length in {@link #buffer()}, or -1 if the data does not shrink
+	 */
+	int deflate(byte[] data, int offset, int length) {
+		if (mBuffer.length < length) {
+			mBuffer = new byte[Math.max(mBuffer.length * 2, length)];
+		}
+		mDeflater.reset();
+		mDeflater.setInput(data, offset, length);
+		mDeflater.finish();
+		int size = 0;
+		while (!mDeflater.finished()) {
+			if (size >= length) {
+				return -1;
+			}
+			size += mDeflater.deflate(mBuffer, size, length - size);
+		}
+		return size < length ? size : -1;
+	}
+
+	/**
+	 * Get the buffer holding the result of the last {@link #deflate(byte[], int, int)}
+	 */
+	byte[] buffer() {
+		return mBuffer;
+	}
+
+	/**
+	 * Check the original length announced for compressed data before allocating it
+	 *
+	 * @param compressedLength
+	 * @param length
+	 * @return true if deflate can produce this length
+	 */
+	static boolean isValidLength(int compressedLength, int length) {
+		return length >= 0 && (long) length <= (long) compressedLength * INFLATE_RATIO_MAX;
+	}
+
+	/**
+	 * Decompress data
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param out
+	 *            Receives the decompressed data
+	 * @param outOffset
+	 * @param outLength
+	 *            The original length of the data
+	 * @throws DataFormatException
+	 *             If the data is corrupted or does not match the original length
+	 */
+	void inflate(byte[] data, int offset, int length, byte[] out, int outOffset, int outLength) throws DataFormatException {
+		if (outLength < 0 || (long) outLength > (long) length * INFLATE_RATIO_MAX) {
+			throw new DataFormatException("Invalid original length " + outLength);
+		}
+		mInflater.reset();
+		mInflater.setInput(data, offset, length);
+		int size = 0;
+		while (size < outLength) {
+			final int count = mInflater.inflate(out, outOffset + size, outLength - size);
+			if (count == 0 && (mInflater.finished() || mInflater.needsInput() || mInflater.needsDictionary())) {
+				throw new DataFormatException("Truncated compressed data");
+			}
+			size += count;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.acasframework;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock-free counter for frequent increments and rare reads.</p>
+ * <p>The count is split in stripes chosen by the calling thread, each stripe on its own
+ * cache line, so the threads which count at the same time do not contend. A read sums
+ * the stripes, it is exact when no increment runs concurrently.</p>
+ */
+class ACASCounter {
+
+	static final String TAG = ACASCounter.class.getSimpleName();
+
+	static final int STRIPES = 8;
+	// Longs per cache line, only the first one of each line is used
+	static final int PADDING = 8;
+
+	private final AtomicLongArray mStripes = new AtomicLongArray(STRIPES * PADDING);
+
+	void increment() {
+		add(1);
+	}
+
+	void add(long delta) {
+		mStripes.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, delta);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += mStripes.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	/**
+	 * Reset the count, an increment running concurrently may be lost
+	 */
+	void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			mStripes.set(i * PADDING, 0);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package com.acasframework;
+
+/**
+ * <p>Thread on which a {@link com.acasframework.ACASOnMessageReceivedListener} is called.</p>
+ * <p>Whatever the mode, one listener receives its messages in order.</p>
+ */
+public enum ACASDispatchMode {
+	/**
+	 * Call the listener on the main thread
+	 */
+	MAIN,
+	/**
+	 * Call the listener on the background pool shared by all listeners
+	 */
+	BACKGROUND,
+	/**
+	 * Call the listener on its own background thread
+	 */
+	SERIAL
+}
@@ -0,0 +1,84 @@
+package com.acasframework;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * <p>Provide the executors used for call the message listeners.</p>
+ */
+class ACASDispatcher {
+
+	static final String TAG = ACASDispatcher.class.getSimpleName();
+
+	static final String POOL_THREAD_NAME = "ACAS-dispatch-";
+	static final String SERIAL_THREAD_NAME = "ACAS-listener-";
+
+	/**
+	 * Create daemon threads with a numbered name
+	 */
+	static final class NamedThreadFactory implements ThreadFactory {
+		private final String mPrefix;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		NamedThreadFactory(String prefix) {
+			mPrefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, mPrefix + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private final Executor mMainExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			mMainHandler.post(command);
+		}
+	};
+	private final ThreadFactory mSerialThreadFactory = new NamedThreadFactory(SERIAL_THREAD_NAME);
+	private ExecutorService mSharedPool;
+	private final ACASCommunication mCommunication;
+
+	ACASDispatcher(ACASCommunication communication) {
+		mCommunication = communication;
+	}
+
+	/**
+	 * Create the subscriber of a listener on the executor of its mode
+	 *
+	 * @param listener
+	 * @param mode
+	 * @param capacity
+	 * @param policy
+	 * @return the subscriber
+	 */
+	ACASSubscriber subscribe(ACASOnMessageReceivedListener listener, ACASDispatchMode mode, int capacity, ACASQueuePolicy policy) {
+		switch (mode) {
+		case BACKGROUND:
+			return new ACASSubscriber(mCommunication, listener, mode, getSharedPool(), false, capacity, policy);
+		case SERIAL:
+			return new ACASSubscriber(mCommunication, listener, mode, Executors.newSingleThreadExecutor(mSerialThreadFactory), true, capacity, policy);
+		case MAIN:
+		default:
+			return new ACASSubscriber(mCommunication, listener, mode, mMainExecutor, false, capacity, policy);
+		}
+	}
+
+	private synchronized ExecutorService getSharedPool() {
+		if (mSharedPool == null) {
+			final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			mSharedPool = Executors.newFixedThreadPool(threads, new NamedThreadFactory(POOL_THREAD_NAME));
+		}
+		return mSharedPool;
+	}
+}
@@ -0,0 +1,122 @@
+package com.acasframework;
+
+/**
+ * <p>Idempotency window over the last received messages.</p>
+ * <p>Each message is identified by its sender and the unique sequence given by the
+ * sending process, hashed to 64 bits. The last keys are kept in a ring, and in an open
+ * addressing table for the lookups, so the memory is fixed by the window size and a
+ * check does not allocate. When the ring is full the oldest key leaves the table.</p>
+ * <p>Callers must synchronize on the filter.</p>
+ */
+class ACASDuplicateFilter {
+
+	static final String TAG = ACASDuplicateFilter.class.getSimpleName();
+
+	private long[] mRing;
+	private long[] mTable;
+	private int mMask;
+	private int mNext = 0;
+	private int mSize = 0;
+	private long mDuplicateCount = 0;
+
+	ACASDuplicateFilter(int capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Set the number of remembered messages, the window is cleared
+	 *
+	 * @param capacity
+	 */
+	void setCapacity(int capacity) {
+		mRing = new long[Math.max(1, capacity)];
+		// Load factor at most one half
+		int tableSize = 2;
+		while (tableSize < mRing.length * 2) {
+			tableSize <<= 1;
+		}
+		mTable = new long[tableSize];
+		mMask = tableSize - 1;
+		mNext = 0;
+		mSize = 0;
+	}
+
+	long duplicateCount() {
+		return mDuplicateCount;
+	}
+
+	/**
+	 * Remember a message
+	 *
+	 * @param idSender
+	 * @param sequence
+	 *            The sequence given by the sender
+	 * @return true if the message is already in the window
+	 */
+	boolean isDuplicate(String idSender, long sequence) {
+		final long key = key(idSender, sequence);
+		int slot = slot(key);
+		while (mTable[slot] != 0) {
+			if (mTable[slot] == key) {
+				mDuplicateCount++;
+				return true;
+			}
+			slot = (slot + 1) & mMask;
+		}
+		if (mSize == mRing.length) {
+			remove(mRing[mNext]);
+			mSize--;
+			// The removal may have moved the free slot
+			slot = slot(key);
+			while (mTable[slot] != 0) {
+				slot = (slot + 1) & mMask;
+			}
+		}
+		mTable[slot] = key;
+		mRing[mNext] = key;
+		mNext = (mNext + 1) % mRing.length;
+		mSize++;
+		return false;
+	}
+
+	private int slot(long key) {
+		return (int) (key ^ (key >>> 32)) & mMask;
+	}
+
+	/**
+	 * Remove a key, the following keys of its cluster are shifted back so that the
+	 * lookups never stop on a hole
+	 */
+	private void remove(long key) {
+		int slot = slot(key);
+		while (mTable[slot] != key) {
+			if (mTable[slot] == 0) {
+				return;
+			}
+			slot = (slot + 1) & mMask;
+		}
+		int hole = slot;
+		int next = (hole + 1) & mMask;
+		while (mTable[next] != 0) {
+			final int home = slot(mTable[next]);
+			// Move the key back if its home is not between the hole and its slot
+			if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+				mTable[hole] = mTable[next];
+				hole = next;
+			}
+			next = (next + 1) & mMask;
+		}
+		mTable[hole] = 0;
+	}
+
+	/**
+	 * Hash a sender and a sequence to a non zero key
+	 */
+	private static long key(String idSender, long sequence) {
+		long h = sequence * 0x9E3779B97F4A7C15L + (idSender == null ? 0 : idSender.hashCode());
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+}
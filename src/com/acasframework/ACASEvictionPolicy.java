@@ -0,0 +1,47 @@
+package com.acasframework;
+
+/**
+ * <p>Implement this interface for choose which message leaves the received history
+ * when it is full.</p>
+ *
+ * @see {@link com.acasframework.ACAS#setStoredReceivEvictionPolicy(ACASEvictionPolicy)}
+ */
+public interface ACASEvictionPolicy {
+
+	/**
+	 * <p>Evict the oldest message of the history, delivered or not.</p>
+	 */
+	public static final ACASEvictionPolicy OLDEST_FIRST = new ACASEvictionPolicy() {
+		@Override
+		public ACASMessage selectVictim(ACASMessage oldestDelivered, ACASMessage oldestUndelivered) {
+			if (oldestDelivered == null) {
+				return oldestUndelivered;
+			}
+			if (oldestUndelivered == null) {
+				return oldestDelivered;
+			}
+			return oldestDelivered.mSequence < oldestUndelivered.mSequence ? oldestDelivered : oldestUndelivered;
+		}
+	};
+
+	/**
+	 * <p>Evict the oldest delivered message, the oldest undelivered one only if all messages are undelivered.</p>
+	 */
+	public static final ACASEvictionPolicy OLDEST_DELIVERED_FIRST = new ACASEvictionPolicy() {
+		@Override
+		public ACASMessage selectVictim(ACASMessage oldestDelivered, ACASMessage oldestUndelivered) {
+			return oldestDelivered != null ? oldestDelivered : oldestUndelivered;
+		}
+	};
+
+	/**
+	 * Choose the message to remove from the received history
+	 *
+	 * @param oldestDelivered
+	 *            The first delivered message still stored, or null
+	 * @param oldestUndelivered
+	 *            The first undelivered message still stored, or null
+	 * @return one of the two messages
+	 */
+	public ACASMessage selectVictim(ACASMessage oldestDelivered, ACASMessage oldestUndelivered);
+}
@@ -0,0 +1,353 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import android.os.Bundle;
+
+/**
+ * <p>Credit based flow control between modules.</p>
+ * <p>A sender may have at most one window of messages in flight to each destination.
+ * The receiver counts the messages it has consumed from each sender, queued to a
+ * listener, stored without matching listener, dropped as duplicate or evicted, and grants them back with small control messages
+ * once half a window is consumed. A message to a destination without credit is parked
+ * until a grant comes, the other destinations are not held.</p>
+ * <p>Grants carry the cumulative consumed count and an epoch of the receiver process,
+ * so a lost or repeated grant is harmless and a restarted receiver resets the window.
+ * A sender blocked for too long probes the receiver which answers with a grant.</p>
+ * <p>Broadcasts, {@link ACASPriority#HIGH} messages and control messages are not
+ * counted. All the modules must use the same window.</p>
+ */
+class ACASFlowControl {
+
+	static final String TAG = ACASFlowControl.class.getSimpleName();
+
+	// Reserved tag out of the range of the public int tags
+	static final long TAG_CONTROL = Long.MIN_VALUE;
+
+	static final String EXTRA_KIND = "com.acas.sources.FLOW_KIND";
+	static final String EXTRA_CONSUMED = "com.acas.sources.FLOW_CONSUMED";
+	static final String EXTRA_EPOCH = "com.acas.sources.FLOW_EPOCH";
+
+	static final int KIND_GRANT = 1;
+	static final int KIND_PROBE = 2;
+
+	// Time a destination stays blocked before it is probed
+	static final long PROBE_INTERVAL = 1000;
+
+	/**
+	 * Send window to one destination
+	 */
+	static final class Window {
+		long mSent;
+		long mConsumed;
+		long mEpoch;
+		long mBlockedSince;
+		final LinkedList<ACASMessage> mParked = new LinkedList<ACASMessage>();
+	}
+
+	/**
+	 * Messages consumed from one sender
+	 */
+	static final class Counter {
+		long mConsumed;
+		long mGranted;
+	}
+
+	private volatile int mWindowSize;
+	private final long mEpoch = new Random().nextLong();
+
+	// Sender side, guarded by the send queue
+	private final HashMap<String, Window> mWindows = new HashMap<String, Window>();
+	private int mParkedCount = 0;
+
+	// Receiver side, guarded by mCounters
+	private final HashMap<String, Counter> mCounters = new HashMap<String, Counter>();
+
+	ACASFlowControl(int windowSize) {
+		mWindowSize = windowSize;
+	}
+
+	/**
+	 * Set the window size, 0 for disable the flow control
+	 *
+	 * @param windowSize
+	 * @param released
+	 *            Receives the parked messages which can be sent now
+	 */
+	void setWindowSize(int windowSize, LinkedList<ACASMessage> released) {
+		mWindowSize = windowSize;
+		for (Window window : mWindows.values()) {
+			release(window, released);
+		}
+	}
+
+	boolean isEnabled() {
+		return mWindowSize > 0;
+	}
+
+	/**
+	 * Check if a message is counted by the flow control
+	 *
+	 * @param message
+	 * @return true if it uses a credit
+	 */
+	static boolean isCounted(ACASMessage message) {
+		return message.mIdReceiver != ACASMessage.ID_BROADCAST && message.mPriority != ACASPriority.HIGH && message.mId != TAG_CONTROL;
+	}
+
+	// Sender side
+
+	int parkedCount() {
+		return mParkedCount;
+	}
+
+	/**
+	 * Take a credit for a message, or park it until the destination grants more
+	 *
+	 * @param message
+	 * @return true if the message can be sent now
+	 */
+	boolean acquire(ACASMessage message) {
+		if (mWindowSize <= 0 || !isCounted(message)) {
+			return true;
+		}
+		final Window window = getWindow(message.mIdReceiver);
+		if (!window.mParked.isEmpty() || window.mSent - window.mConsumed >= mWindowSize) {
+			window.mParked.addLast(message);
+			mParkedCount++;
+			if (window.mBlockedSince == 0) {
+				window.mBlockedSince = System.currentTimeMillis();
+			}
+			return false;
+		}
+		window.mSent++;
+		message.mCreditTaken = true;
+		return true;
+	}
+
+	/**
+	 * Give back the credit of a message which could not be sent
+	 *
+	 * @param message
+	 * @param released
+	 *            Receives the parked messages which can be sent now
+	 */
+	void refund(ACASMessage message, LinkedList<ACASMessage> released) {
+		if (!message.mCreditTaken) {
+			return;
+		}
+		message.mCreditTaken = false;
+		final Window window = getWindow(message.mIdReceiver);
+		if (window.mSent > window.mConsumed) {
+			window.mSent--;
+		}
+		release(window, released);
+	}
+
+	/**
+	 * Remove all the parked messages
+	 *
+	 * @param out
+	 *            Receives the removed messages
+	 */
+	void clearParked(ArrayList<ACASMessage> out) {
+		for (Window window : mWindows.values()) {
+			out.addAll(window.mParked);
+			window.mParked.clear();
+			window.mBlockedSince = 0;
+		}
+		mParkedCount = 0;
+	}
+
+	/**
+	 * Remove the oldest parked message of the destination blocked for the longest time,
+	 * used for make room in the send queue
+	 *
+	 * @return the message, or null if none is parked
+	 */
+	ACASMessage removeParked() {
+		if (mParkedCount == 0) {
+			return null;
+		}
+		Window oldest = null;
+		for (Window window : mWindows.values()) {
+			if (!window.mParked.isEmpty() && (oldest == null || window.mBlockedSince < oldest.mBlockedSince)) {
+				oldest = window;
+			}
+		}
+		final ACASMessage message = oldest.mParked.removeFirst();
+		mParkedCount--;
+		if (oldest.mParked.isEmpty()) {
+			oldest.mBlockedSince = 0;
+		}
+		return message;
+	}
+
+	/**
+	 * Apply a grant received from a destination
+	 *
+	 * @param grant
+	 * @param released
+	 *            Receives the parked messages which can be sent now
+	 */
+	void onGrant(ACASMessage grant, LinkedList<ACASMessage> released) {
+		final Bundle extras = grant.mExtras;
+		final long epoch = extras.getLong(EXTRA_EPOCH, 0);
+		final long consumed = extras.getLong(EXTRA_CONSUMED, 0);
+		final Window window = getWindow(grant.mIdSender);
+		if (window.mEpoch == 0) {
+			window.mEpoch = epoch;
+		}
+		if (epoch != window.mEpoch) {
+			// New receiver process, nothing is in flight for it
+			window.mEpoch = epoch;
+			window.mSent = consumed;
+			window.mConsumed = consumed;
+		} else if (consumed > window.mConsumed) {
+			window.mConsumed = consumed;
+		}
+		release(window, released);
+	}
+
+	/**
+	 * Get the delay before the next probe
+	 *
+	 * @param now
+	 * @return the delay in ms, or -1 if no destination is blocked
+	 */
+	long nextProbeDelay(long now) {
+		if (mParkedCount == 0) {
+			return -1;
+		}
+		long delay = -1;
+		for (Window window : mWindows.values()) {
+			if (!window.mParked.isEmpty()) {
+				final long remaining = Math.max(0, window.mBlockedSince + PROBE_INTERVAL - now);
+				if (delay < 0 || remaining < delay) {
+					delay = remaining;
+				}
+			}
+		}
+		return delay;
+	}
+
+	/**
+	 * Build a probe for a destination blocked since the probe interval
+	 *
+	 * @param now
+	 * @return the probe, or null
+	 */
+	ACASMessage nextProbe(long now) {
+		if (mParkedCount == 0) {
+			return null;
+		}
+		for (Map.Entry<String, Window> entry : mWindows.entrySet()) {
+			final Window window = entry.getValue();
+			if (!window.mParked.isEmpty() && now - window.mBlockedSince >= PROBE_INTERVAL) {
+				window.mBlockedSince = now;
+				final Bundle extras = new Bundle();
+				extras.putInt(EXTRA_KIND, KIND_PROBE);
+				return buildControl(entry.getKey(), extras);
+			}
+		}
+		return null;
+	}
+
+	private Window getWindow(String destination) {
+		Window window = mWindows.get(destination);
+		if (window == null) {
+			window = new Window();
+			mWindows.put(destination, window);
+		}
+		return window;
+	}
+
+	private void release(Window window, LinkedList<ACASMessage> released) {
+		while (!window.mParked.isEmpty() && (mWindowSize <= 0 || window.mSent - window.mConsumed < mWindowSize)) {
+			final ACASMessage message = window.mParked.removeFirst();
+			message.mCreditTaken = true;
+			released.addLast(message);
+			mParkedCount--;
+			window.mSent++;
+		}
+		window.mBlockedSince = window.mParked.isEmpty() ? 0 : System.currentTimeMillis();
+	}
+
+	// Receiver side
+
+	/**
+	 * Mark a received message which must be granted back once consumed
+	 *
+	 * @param message
+	 */
+	void onReceived(ACASMessage message) {
+		message.mCreditPending = mWindowSize > 0 && isCounted(message);
+	}
+
+	/**
+	 * Count a consumed message
+	 *
+	 * @param message
+	 * @return the grant to send back, or null
+	 */
+	ACASMessage onConsumed(ACASMessage message) {
+		if (!message.mCreditPending) {
+			return null;
+		}
+		message.mCreditPending = false;
+		synchronized (mCounters) {
+			final Counter counter = getCounter(message.mIdSender);
+			counter.mConsumed++;
+			if (counter.mConsumed - counter.mGranted < Math.max(1, mWindowSize / 2)) {
+				return null;
+			}
+			counter.mGranted = counter.mConsumed;
+			return buildGrant(message.mIdSender, counter.mConsumed);
+		}
+	}
+
+	/**
+	 * Answer a probe
+	 *
+	 * @param probe
+	 * @return the grant to send back
+	 */
+	ACASMessage onProbe(ACASMessage probe) {
+		synchronized (mCounters) {
+			final Counter counter = getCounter(probe.mIdSender);
+			counter.mGranted = counter.mConsumed;
+			return buildGrant(probe.mIdSender, counter.mConsumed);
+		}
+	}
+
+	private Counter getCounter(String sender) {
+		Counter counter = mCounters.get(sender);
+		if (counter == null) {
+			counter = new Counter();
+			mCounters.put(sender, counter);
+		}
+		return counter;
+	}
+
+	private ACASMessage buildGrant(String destination, long consumed) {
+		final Bundle extras = new Bundle();
+		extras.putInt(EXTRA_KIND, KIND_GRANT);
+		extras.putLong(EXTRA_CONSUMED, consumed);
+		extras.putLong(EXTRA_EPOCH, mEpoch);
+		return buildControl(destination, extras);
+	}
+
+	private static ACASMessage buildControl(String destination, Bundle extras) {
+		final ACASMessage message = new ACASMessage();
+		message.mId = TAG_CONTROL;
+		message.mIdSender = ACAS.mAppId;
+		message.mIdReceiver = destination;
+		message.mPriority = ACASPriority.HIGH;
+		message.mExtras = extras;
+		return message;
+	}
+}
@@ -0,0 +1,107 @@
+package com.acasframework;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Completion handle of an asynchronous ACAS operation.</p>
+ *
+ * @param <V> the result type
+ */
+public class ACASFuture<V> implements Future<V> {
+
+	static final String TAG = ACASFuture.class.getSimpleName();
+
+	private V mResult;
+	private Throwable mError;
+	private boolean mDone = false;
+	private boolean mCancelled = false;
+
+	/**
+	 * Complete with a result
+	 *
+	 * @param result
+	 * @return false if the future was already completed
+	 */
+	synchronized boolean set(V result) {
+		if (mDone) {
+			return false;
+		}
+		mResult = result;
+		mDone = true;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Complete with an error
+	 *
+	 * @param error
+	 * @return false if the future was already completed
+	 */
+	synchronized boolean fail(Throwable error) {
+		if (mDone) {
+			return false;
+		}
+		mError = error;
+		mDone = true;
+		notifyAll();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+		if (mDone) {
+			return false;
+		}
+		mCancelled = true;
+		mDone = true;
+		notifyAll();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return mCancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return mDone;
+	}
+
+	@Override
+	public synchronized V get() throws InterruptedException, ExecutionException {
+		while (!mDone) {
+			wait();
+		}
+		return report();
+	}
+
+	@Override
+	public synchronized V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long remaining = unit.toNanos(timeout);
+		final long deadline = System.nanoTime() + remaining;
+		while (!mDone) {
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			remaining = deadline - System.nanoTime();
+		}
+		return report();
+	}
+
+	private V report() throws ExecutionException {
+		if (mCancelled) {
+			throw new CancellationException();
+		}
+		if (mError != null) {
+			throw new ExecutionException(mError);
+		}
+		return mResult;
+	}
+}
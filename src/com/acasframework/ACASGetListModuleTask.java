@@ -51,6 +51,7 @@ public class ACASGetListModuleTask extends AsyncTask<ACASSecurity, Void, Integer
 	static final String JSON_NONE = "none";
 
 	private Boolean mIsLaunched = false;
+	private long mStartTime = 0;
 	private Context mContext;
     private ACASModuleDAO moduleDAO;
 
@@ -84,6 +85,7 @@ public class ACASGetListModuleTask extends AsyncTask<ACASSecurity, Void, Integer
 			}
 			mIsLaunched = true;
 		}
+		mStartTime = System.nanoTime();
 
 		// Extract parameter
 		if (params.length == 0) {
@@ -282,6 +284,9 @@ public class ACASGetListModuleTask extends AsyncTask<ACASSecurity, Void, Integer
 		synchronized (mIsLaunched) {
 			mIsLaunched = false;
 		}
+		if (status != STATUS_ALREADY_LAUNCH && mStartTime != 0) {
+			ACASCommunication.sMetrics.recordModuleSync(System.nanoTime() - mStartTime);
+		}
 
 		switch (status) {
 
@@ -296,6 +301,7 @@ public class ACASGetListModuleTask extends AsyncTask<ACASSecurity, Void, Integer
 		case STATUS_CONNECTIVITY:
 		case STATUS_KO:
 		case STATUS_OK:
+			ACAS.mCommunication.updateBroadcastPackages();
 			ACAS.mSecurity.setKeyValidation(true);
 			ACAS.mListModuleReceiver.deliveryModules();
 			break;
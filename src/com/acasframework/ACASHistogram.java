@@ -0,0 +1,100 @@
+package com.acasframework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock-free latency histogram with a bounded relative error, in the manner of HDR
+ * histograms.</p>
+ * <p>Values are in microseconds. Below {@link #SUB_BUCKETS} each value has its own
+ * bucket, above each power of two is split in {@link #SUB_BUCKETS} linear buckets so
+ * the error stays under 1/{@link #SUB_BUCKETS} of the value. A record is a few atomic
+ * increments, it does not allocate nor lock.</p>
+ */
+class ACASHistogram {
+
+	static final String TAG = ACASHistogram.class.getSimpleName();
+
+	static final int SUB_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Values over 2^40 us, about twelve days, are counted in the last bucket
+	static final int MAGNITUDE_MAX = 40;
+	static final int BUCKETS = SUB_BUCKETS + (MAGNITUDE_MAX - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Record an elapsed time
+	 *
+	 * @param nanos
+	 *            The time in nanoseconds, negative values are ignored
+	 */
+	void recordNanos(long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		final long micros = nanos / 1000;
+		mCounts.incrementAndGet(bucketOf(micros));
+		mCount.incrementAndGet();
+		mSum.addAndGet(micros);
+		long max = mMax.get();
+		while (micros > max && !mMax.compareAndSet(max, micros)) {
+			max = mMax.get();
+		}
+	}
+
+	/**
+	 * Copy the current state
+	 *
+	 * @return the immutable snapshot
+	 */
+	ACASLatency snapshot() {
+		final long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = mCounts.get(i);
+			count += counts[i];
+		}
+		return new ACASLatency(counts, count, mSum.get(), mMax.get());
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	long count() {
+		return mCount.get();
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		if (magnitude >= MAGNITUDE_MAX) {
+			return BUCKETS - 1;
+		}
+		final int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (magnitude - SUB_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Get the highest value counted in a bucket
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		final long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((SUB_BUCKETS | sub) + 1 << shift) - 1;
+	}
+}
@@ -0,0 +1,168 @@
+package com.acasframework;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Message queue with one FIFO lane per {@link ACASPriority}.</p>
+ * <p>{@link #removeFirst()} serves the lanes by weighted round robin: in each round a
+ * lane gives at most its weight of messages, the higher lanes first. Iteration goes
+ * through the lanes from the highest one. Callers must synchronize on the queue.</p>
+ */
+class ACASLaneQueue extends AbstractCollection<ACASMessage> {
+
+	static final String TAG = ACASLaneQueue.class.getSimpleName();
+
+	private static final ACASPriority[] PRIORITIES = ACASPriority.values();
+
+	private final LinkedList<ACASMessage>[] mLanes;
+	private final int[] mServed = new int[PRIORITIES.length];
+	private int mSize = 0;
+
+	@SuppressWarnings("unchecked")
+	ACASLaneQueue() {
+		mLanes = new LinkedList[PRIORITIES.length];
+		for (int i = 0; i < mLanes.length; i++) {
+			mLanes[i] = new LinkedList<ACASMessage>();
+		}
+	}
+
+	/**
+	 * Queue a message at the end of the lane of its priority
+	 *
+	 * @param message
+	 */
+	void addLast(ACASMessage message) {
+		mLanes[message.mPriority.ordinal()].addLast(message);
+		mSize++;
+	}
+
+	@Override
+	public boolean add(ACASMessage message) {
+		addLast(message);
+		return true;
+	}
+
+	/**
+	 * Take the next message following the lane weights
+	 *
+	 * @return the message
+	 * @throws NoSuchElementException
+	 *             If the queue is empty
+	 */
+	ACASMessage removeFirst() {
+		if (mSize == 0) {
+			throw new NoSuchElementException();
+		}
+		while (true) {
+			for (int i = 0; i < mLanes.length; i++) {
+				if (!mLanes[i].isEmpty() && mServed[i] < PRIORITIES[i].mWeight) {
+					mServed[i]++;
+					mSize--;
+					return mLanes[i].removeFirst();
+				}
+			}
+			// All the waiting lanes used their weight, start a new round
+			for (int i = 0; i < mServed.length; i++) {
+				mServed[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Take the oldest message of the lowest non empty lane, used for make room
+	 *
+	 * @return the message
+	 * @throws NoSuchElementException
+	 *             If the queue is empty
+	 */
+	ACASMessage removeLeastUrgent() {
+		for (int i = mLanes.length - 1; i >= 0; i--) {
+			if (!mLanes[i].isEmpty()) {
+				mSize--;
+				return mLanes[i].removeFirst();
+			}
+		}
+		throw new NoSuchElementException();
+	}
+
+	/**
+	 * Take the oldest message of the lowest lane holding one without the kept tag
+	 *
+	 * @param keptTag
+	 *            The tag of the messages which are never removed
+	 * @return the message, or null if all the messages have the kept tag
+	 */
+	ACASMessage removeLeastUrgent(long keptTag) {
+		for (int i = mLanes.length - 1; i >= 0; i--) {
+			for (Iterator<ACASMessage> itr = mLanes[i].iterator(); itr.hasNext();) {
+				final ACASMessage message = itr.next();
+				if (message.mId != keptTag) {
+					itr.remove();
+					mSize--;
+					return message;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return mSize;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < mLanes.length; i++) {
+			mLanes[i].clear();
+		}
+		mSize = 0;
+	}
+
+	@Override
+	public Iterator<ACASMessage> iterator() {
+		return new Iterator<ACASMessage>() {
+			private int mLane = 0;
+			private Iterator<ACASMessage> mCurrent = mLanes[0].iterator();
+			private Iterator<ACASMessage> mLast;
+
+			@Override
+			public boolean hasNext() {
+				while (!mCurrent.hasNext()) {
+					if (mLane == mLanes.length - 1) {
+						return false;
+					}
+					mCurrent = mLanes[++mLane].iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public ACASMessage next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				mLast = mCurrent;
+				return mCurrent.next();
+			}
+
+			@Override
+			public void remove() {
+				if (mLast == null) {
+					throw new IllegalStateException();
+				}
+				mLast.remove();
+				mLast = null;
+				mSize--;
+			}
+		};
+	}
+}
@@ -0,0 +1,78 @@
+package com.acasframework;
+
+/**
+ * <p>Immutable snapshot of a latency distribution, the values are in microseconds.</p>
+ * <p>Percentiles are exact to within 1/8 of the value.</p>
+ */
+public final class ACASLatency {
+
+	static final String TAG = ACASLatency.class.getSimpleName();
+
+	static final ACASLatency EMPTY = new ACASLatency(new long[ACASHistogram.BUCKETS], 0, 0, 0);
+
+	private final long[] mCounts;
+	private final long mCount;
+	private final long mSum;
+	private final long mMax;
+
+	ACASLatency(long[] counts, long count, long sum, long max) {
+		mCounts = counts;
+		mCount = count;
+		mSum = sum;
+		mMax = max;
+	}
+
+	/**
+	 * Get the number of recorded values
+	 * @return
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Get the mean value
+	 * @return the mean in us, 0 if nothing is recorded
+	 */
+	public double getMean() {
+		return mCount == 0 ? 0 : (double) mSum / mCount;
+	}
+
+	/**
+	 * Get the greatest recorded value
+	 * @return the max in us
+	 */
+	public long getMax() {
+		return mMax;
+	}
+
+	/**
+	 * Get the value under which a percentage of the recorded values are
+	 * 
+	 * @param percentile from 0 to 100
+	 * @return the value in us, 0 if nothing is recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (mCount == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * mCount));
+		long seen = 0;
+		for (int i = 0; i < mCounts.length; i++) {
+			seen += mCounts[i];
+			if (seen >= rank) {
+				return Math.min(ACASHistogram.highestValueOf(i), mMax);
+			}
+		}
+		return mMax;
+	}
+
+	long sum() {
+		return mSum;
+	}
+
+	@Override
+	public String toString() {
+		return "count="+ mCount +" mean="+ (long) getMean() +"us p50="+ getValueAtPercentile(50) +"us p99="+ getValueAtPercentile(99) +"us max="+ mMax +"us";
+	}
+}
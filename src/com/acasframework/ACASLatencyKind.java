@@ -0,0 +1,19 @@
+package com.acasframework;
+
+/**
+ * <p>Measured step of the message path.</p>
+ */
+public enum ACASLatencyKind {
+	/**
+	 * From the send call to the hand over to the system
+	 */
+	SEND,
+	/**
+	 * From the reception to the call of a listener, including the listener queue
+	 */
+	DISPATCH,
+	/**
+	 * Time spent in the listener callbacks
+	 */
+	CALLBACK
+}
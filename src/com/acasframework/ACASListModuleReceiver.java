@@ -2,7 +2,6 @@ package com.acasframework;
 
 
 import android.util.Log;
-import android.util.Pair;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -11,7 +10,20 @@ public class ACASListModuleReceiver {
 	
     static final String TAG = ACASListModuleReceiver.class.getSimpleName();
 
-    private ArrayList<Pair<ACASOnListModuleReceiver, String>> mListeners = new ArrayList<Pair<ACASOnListModuleReceiver, String>>();
+    /**
+     * One registered module listener with its entry point filter
+     */
+    static final class Subscription {
+        final ACASOnListModuleReceiver mListener;
+        final String mEntryPoint;
+
+        Subscription(ACASOnListModuleReceiver listener, String entryPoint) {
+            mListener = listener;
+            mEntryPoint = entryPoint;
+        }
+    }
+
+    private final ACASRegistry<Subscription> mListeners = new ACASRegistry<Subscription>(new Subscription[0]);
 
     /**
      * Add an listener for received modules
@@ -19,7 +31,7 @@ public class ACASListModuleReceiver {
      * @param listener
      */
     void setOnListModuleReceivedListener(ACASOnListModuleReceiver listener) {
-        mListeners.add(new Pair<ACASOnListModuleReceiver, String>(listener, null));
+        mListeners.add(new Subscription(listener, null));
         deliveryModules();
     }
 
@@ -30,17 +42,22 @@ public class ACASListModuleReceiver {
      * @param entryPoint
      */
     void setOnListModuleReceivedListener(ACASOnListModuleReceiver listener, String entryPoint) {
-        mListeners.add(new Pair<ACASOnListModuleReceiver, String>(listener, entryPoint));
+        mListeners.add(new Subscription(listener, entryPoint));
         deliveryModules();
     }
 
     /**
-     * Delete an listener from list
+     * Delete an listener from list, with all its entry point filters
      *
      * @param listener
      */
     void removeOnListModuleReceiverListener(ACASOnListModuleReceiver listener) {
-      //  mListeners.remove(listener);
+        final Subscription[] listeners = mListeners.snapshot();
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].mListener == listener) {
+                mListeners.remove(listeners[i]);
+            }
+        }
     }
 
     /**
@@ -48,27 +65,24 @@ public class ACASListModuleReceiver {
      */
     void deliveryModules() {
         int nbrDelivery = 0;
-        Iterator<Pair<ACASOnListModuleReceiver, String>> itr = mListeners.iterator();
-        while (itr.hasNext()) {
-            final Pair<ACASOnListModuleReceiver, String> elem = itr.next();
-            if (elem == null) {
-                if (ACAS.DEBUG_MODE) {
-                    Log.d(TAG, "Listener is null, remove it.");
-                }
-                itr.remove();
-            } else if (ACAS.mModuleList != null && ACAS.mModuleList.size()>0) {
-                if (elem.second == null) {
+        final ArrayList<ACASModule> moduleList = ACAS.mModuleList;
+        final Subscription[] listeners = mListeners.snapshot();
+        for (int i = 0; i < listeners.length; i++) {
+            final Subscription elem = listeners[i];
+            if (moduleList != null && moduleList.size()>0) {
+                if (elem.mEntryPoint == null) {
                     nbrDelivery++;
-                    elem.first.onListModuleReceived(ACAS.mModuleList);
+                    elem.mListener.onListModuleReceived(moduleList);
                 } else {
                     nbrDelivery++;
                     ArrayList<ACASModule> filtered = new ArrayList<ACASModule>();
-                    for (Iterator<ACASModule> it=ACAS.mModuleList.iterator(); it.hasNext();) {
-                        if (it.next().mEntryPoint.equals(elem.second)) {
-                            filtered.add(it.next());
+                    for (Iterator<ACASModule> it=moduleList.iterator(); it.hasNext();) {
+                        final ACASModule module = it.next();
+                        if (elem.mEntryPoint.equals(module.mEntryPoint)) {
+                            filtered.add(module);
                         }
                     }
-                    elem.first.onListModuleReceived(filtered);
+                    elem.mListener.onListModuleReceived(filtered);
                 }
             }
         }
@@ -0,0 +1,95 @@
+package com.acasframework;
+
+import android.util.Log;
+
+/**
+ * <p>Leveled logging of the framework.</p>
+ * <p>The messages are formatted only when their level is enabled, with "{}"
+ * placeholders or a {@link Message} built on demand. Hot paths guard their calls with
+ * {@link #isLoggable(int)} so that the arguments are not even boxed, and the whole
+ * logging is removed from the bytecode when {@link #ENABLED} is false.</p>
+ * <p>The existing {@link ACAS#DEBUG_MODE} stays the master switch.</p>
+ */
+final class ACASLog {
+
+	static final String TAG = ACASLog.class.getSimpleName();
+
+	// Compile-time switch, false strips the guarded calls from a release build
+	static final boolean ENABLED = true;
+
+	static final int VERBOSE = Log.VERBOSE;
+	static final int DEBUG = Log.DEBUG;
+	static final int INFO = Log.INFO;
+	static final int WARN = Log.WARN;
+	static final int ERROR = Log.ERROR;
+
+	static volatile int sLevel = INFO;
+
+	/**
+	 * Message built only when it is logged
+	 */
+	interface Message {
+		String build();
+	}
+
+	private ACASLog() {
+	}
+
+	static boolean isLoggable(int level) {
+		return ENABLED && ACAS.DEBUG_MODE && level >= sLevel;
+	}
+
+	static void v(String tag, String format, Object... args) {
+		if (isLoggable(VERBOSE)) {
+			Log.v(tag, format(format, args));
+		}
+	}
+
+	static void d(String tag, String format, Object... args) {
+		if (isLoggable(DEBUG)) {
+			Log.d(tag, format(format, args));
+		}
+	}
+
+	static void i(String tag, String format, Object... args) {
+		if (isLoggable(INFO)) {
+			Log.i(tag, format(format, args));
+		}
+	}
+
+	static void w(String tag, String format, Object... args) {
+		if (isLoggable(WARN)) {
+			Log.w(tag, format(format, args));
+		}
+	}
+
+	static void e(String tag, String message, Throwable error) {
+		if (isLoggable(ERROR)) {
+			Log.e(tag, message, error);
+		}
+	}
+
+	static void log(int level, String tag, Message message) {
+		if (isLoggable(level)) {
+			Log.println(level, tag, message.build());
+		}
+	}
+
+	/**
+	 * Replace each "{}" by the next argument
+	 */
+	static String format(String format, Object[] args) {
+		if (args == null || args.length == 0) {
+			return format;
+		}
+		final StringBuilder out = new StringBuilder(format.length() + 16 * args.length);
+		int argument = 0;
+		int start = 0;
+		int index;
+		while (argument < args.length && (index = format.indexOf("{}", start)) >= 0) {
+			out.append(format, start, index).append(args[argument++]);
+			start = index + 2;
+		}
+		return out.append(format, start, format.length()).toString();
+	}
+}
@@ -1,9 +1,11 @@
 package com.acasframework;
 
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.Set;
 
 import android.os.Bundle;
+import android.os.Parcel;
 
 public class ACASMessage {
 	
@@ -16,6 +18,28 @@ public class ACASMessage {
 	String mIdReceiver;
 	Bundle mExtras;
 	boolean mDelivered = false;
+	ACASMessageStore.Node mStoreNode;
+	long mSequence = -1;
+	int mPayloadSize = -1;
+	ACASFuture<ACASMessage> mSendFuture;
+	long mCorrelationId = 0;
+	long mResponseTo = 0;
+	ByteBuffer mPayload;
+	ACASSharedPayload mSharedPayload;
+	long mOutboxId = 0;
+	ACASPriority mPriority = ACASPriority.NORMAL;
+	boolean mCreditPending = false;
+	boolean mCreditTaken = false;
+	// Listener queues holding the message plus the dispatch in progress
+	volatile int mPendingDeliveries = 0;
+	long mSendSequence = 0;
+	// Member packages of the group the message is sent to, null otherwise
+	String[] mRecipients;
+	long mSendTime = 0;
+	long mReceiveTime = 0;
+	String mTopic;
+	// Segments of mTopic split on first use, empty if the topic is malformed
+	private String[] mTopicSegments;
 
 	/**
 	 * Use this for directly respond to the sender
@@ -41,6 +65,38 @@ public class ACASMessage {
 		return mExtras;
 	}
 	
+	/**
+	 * <p>Get the binary payload of this message, or null if it has none.</p>
+	 * <p>A large payload is mapped from a shared file without copying, the file is
+	 * released once the message has left the received list and every listener has
+	 * returned from its callback.</p>
+	 * @return a read only view of the payload
+	 */
+	public final ByteBuffer getPayload() {
+		return mPayload == null ? null : mPayload.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * <p>Release the shared file of a large payload without waiting for the message to
+	 * leave the received list, the listeners still running keep it. The mapped payload
+	 * stays readable. A response completing a request is never stored, release it when
+	 * done.</p>
+	 */
+	public final void release() {
+		final ACASSharedPayload shared = mSharedPayload;
+		if (shared != null) {
+			shared.releaseMessage();
+		}
+	}
+	
+	/**
+	 * Get the scheduling class of this message
+	 * @return
+	 */
+	public final ACASPriority getPriority() {
+		return mPriority;
+	}
+	
 	/**
 	 * Get the sender id of this message
 	 * 
@@ -66,6 +122,56 @@ public class ACASMessage {
 	public final long getId() {
 		return mId;
 	}
+	
+	/**
+	 * Get the topic of this message
+	 * @return the topic, or null if the message was not published on a topic
+	 */
+	public final String getTopic() {
+		return mTopic;
+	}
+	
+	/**
+	 * Get the segments of the topic
+	 * @return the segments, or null if the message has no topic
+	 */
+	String[] topicSegments() {
+		if (mTopic == null) {
+			return null;
+		}
+		String[] segments = mTopicSegments;
+		if (segments == null) {
+			try {
+				segments = ACASTopicTrie.split(mTopic, false);
+			} catch (IllegalArgumentException e) {
+				segments = new String[0];
+			}
+			mTopicSegments = segments;
+		}
+		return segments;
+	}
+
+	/**
+	 * Get the parcelled size of the extras and of the inline payload, computed once
+	 * @return the size in bytes
+	 */
+	int getPayloadSize() {
+		if (mPayloadSize < 0) {
+			if (mExtras == null) {
+				mPayloadSize = 0;
+			} else {
+				final Parcel parcel = Parcel.obtain();
+				parcel.writeBundle(mExtras);
+				mPayloadSize = parcel.dataSize();
+				parcel.recycle();
+			}
+			if (mPayload != null && mSharedPayload == null
+					&& (ACASCommunication.getSharedPayloadDirectory() == null || mPayload.remaining() < ACASCommunication.sLargePayloadThreshold)) {
+				mPayloadSize += mPayload.remaining();
+			}
+		}
+		return mPayloadSize;
+	}
 
 	/**
 	 * <p>Returns a string containing a concise, human-readable description of this object.</p>
@@ -77,6 +183,9 @@ public class ACASMessage {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("IdSender=").append(mIdSender).append("\n");
 		sb.append("Id=").append(mId).append("\n");
+		if (mTopic != null) {
+			sb.append("Topic=").append(mTopic).append("\n");
+		}
 		sb.append("Bundle:\n");
 		if (mExtras != null && !mExtras.isEmpty()) {
 			final Set<String> keys = mExtras.keySet();
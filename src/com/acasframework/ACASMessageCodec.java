@@ -0,0 +1,596 @@
+package com.acasframework;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+import android.os.Bundle;
+
+/**
+ * <p>Compact binary encoding of a message, sent as one byte array extra instead of
+ * the routing extras and the parcelled Bundle.</p>
+ * <p>Layout: a fixed header (magic, version, flags, priority, id), the optional correlation ids,
+ * the sender and receiver ids, the optional payload, then the typed extras. Lengths
+ * and integers are varints, signed ones are zigzag encoded.</p>
+ * <p>Above the compression threshold everything after the first 4 bytes is replaced by
+ * its original length and its deflated data, and the header is flagged compressed.</p>
+ * <p>One codec instance reuses its buffer and is not thread safe. Only the usual
+ * Bundle value types are supported, {@link #encode(ACASMessage, String, int)} returns null
+ * for any other and the message must be sent as a Bundle.</p>
+ * <p>Decoding checks every length against the remaining data, so a forged message is
+ * refused with an {@link IllegalArgumentException} before anything is allocated, and
+ * nested bundles are limited to {@link #BUNDLE_DEPTH_MAX} levels.</p>
+ */
+class ACASMessageCodec {
+
+	static final String TAG = ACASMessageCodec.class.getSimpleName();
+
+	static final byte MAGIC = 0x41;
+	static final byte VERSION = 1;
+
+	static final int FLAG_BROADCAST = 0x01;
+	static final int FLAG_CORRELATION = 0x02;
+	static final int FLAG_RESPONSE = 0x04;
+	static final int FLAG_INLINE_PAYLOAD = 0x08;
+	static final int FLAG_SHARED_PAYLOAD = 0x10;
+	static final int FLAG_COMPRESSED = 0x20;
+	static final int FLAG_SEND_SEQUENCE = 0x40;
+	static final int FLAG_TOPIC = 0x80;
+
+	static final byte TYPE_NULL = 0;
+	static final byte TYPE_BOOLEAN = 1;
+	static final byte TYPE_BYTE = 2;
+	static final byte TYPE_SHORT = 3;
+	static final byte TYPE_CHAR = 4;
+	static final byte TYPE_INT = 5;
+	static final byte TYPE_LONG = 6;
+	static final byte TYPE_FLOAT = 7;
+	static final byte TYPE_DOUBLE = 8;
+	static final byte TYPE_STRING = 9;
+	static final byte TYPE_BYTE_ARRAY = 10;
+	static final byte TYPE_INT_ARRAY = 11;
+	static final byte TYPE_LONG_ARRAY = 12;
+	static final byte TYPE_STRING_ARRAY = 13;
+	static final byte TYPE_BUNDLE = 14;
+	static final byte TYPE_DOUBLE_ARRAY = 15;
+	static final byte TYPE_BOOLEAN_ARRAY = 16;
+
+	static final int HEADER_SIZE = 4;
+	static final int INITIAL_CAPACITY = 1024;
+	// Nested bundles are walked recursively, a forged nesting must not overflow the stack
+	static final int BUNDLE_DEPTH_MAX = 32;
+
+	final ACASCompressor mCompressor = new ACASCompressor();
+
+	private byte[] mBuffer = new byte[INITIAL_CAPACITY];
+	private int mPosition;
+
+	/**
+	 * Encode a message
+	 *
+	 * @param message
+	 * @param sharedPayload
+	 *            The path of the shared payload file, or null to write the payload inline
+	 * @param compressThreshold
+	 *            The encoded size from which the message is compressed, 0 to never compress
+	 * @return the encoded message, or null if an extra has an unsupported type
+	 */
+	byte[] encode(ACASMessage message, String sharedPayload, int compressThreshold) {
+		mPosition = 0;
+		int flags = 0;
+		if (message.mIdReceiver == ACASMessage.ID_BROADCAST) {
+			flags |= FLAG_BROADCAST;
+		}
+		if (message.mCorrelationId != 0) {
+			flags |= FLAG_CORRELATION;
+		}
+		if (message.mResponseTo != 0) {
+			flags |= FLAG_RESPONSE;
+		}
+		if (message.mSendSequence != 0) {
+			flags |= FLAG_SEND_SEQUENCE;
+		}
+		if (message.mTopic != null) {
+			flags |= FLAG_TOPIC;
+		}
+		if (sharedPayload != null) {
+			flags |= FLAG_SHARED_PAYLOAD;
+		} else if (message.mPayload != null) {
+			flags |= FLAG_INLINE_PAYLOAD;
+		}
+
+		// Header
+		ensure(4 + 8);
+		mBuffer[mPosition++] = MAGIC;
+		mBuffer[mPosition++] = VERSION;
+		mBuffer[mPosition++] = (byte) flags;
+		mBuffer[mPosition++] = (byte) message.mPriority.ordinal();
+		writeFixed64(message.mId);
+		if ((flags & FLAG_CORRELATION) != 0) {
+			writeFixed64(message.mCorrelationId);
+		}
+		if ((flags & FLAG_RESPONSE) != 0) {
+			writeFixed64(message.mResponseTo);
+		}
+		if ((flags & FLAG_SEND_SEQUENCE) != 0) {
+			writeFixed64(message.mSendSequence);
+		}
+		writeString(message.mIdSender);
+		if ((flags & FLAG_BROADCAST) == 0) {
+			writeString(message.mIdReceiver);
+		}
+		if ((flags & FLAG_TOPIC) != 0) {
+			writeString(message.mTopic);
+		}
+
+		// Payload
+		if ((flags & FLAG_SHARED_PAYLOAD) != 0) {
+			writeString(sharedPayload);
+		} else if ((flags & FLAG_INLINE_PAYLOAD) != 0) {
+			final ByteBuffer payload = message.mPayload.duplicate();
+			final int length = payload.remaining();
+			writeVarint(length);
+			ensure(length);
+			payload.get(mBuffer, mPosition, length);
+			mPosition += length;
+		}
+
+		// Extras
+		if (!writeBundle(message.mExtras, 0)) {
+			return null;
+		}
+
+		final int bodyLength = mPosition - HEADER_SIZE;
+		if (compressThreshold > 0 && bodyLength >= compressThreshold) {
+			final int length = mCompressor.deflate(mBuffer, HEADER_SIZE, bodyLength);
+			if (length >= 0) {
+				final byte[] result = new byte[HEADER_SIZE + varintSize(bodyLength) + length];
+				System.arraycopy(mBuffer, 0, result, 0, HEADER_SIZE);
+				result[2] |= FLAG_COMPRESSED;
+				int position = HEADER_SIZE;
+				int value = bodyLength;
+				while ((value & ~0x7F) != 0) {
+					result[position++] = (byte) ((value & 0x7F) | 0x80);
+					value >>>= 7;
+				}
+				result[position++] = (byte) value;
+				System.arraycopy(mCompressor.buffer(), 0, result, position, length);
+				return result;
+			}
+		}
+
+		final byte[] result = new byte[mPosition];
+		System.arraycopy(mBuffer, 0, result, 0, mPosition);
+		return result;
+	}
+
+	/**
+	 * Decode a message
+	 *
+	 * @param data
+	 * @param message
+	 *            The message to fill
+	 * @return the path of the shared payload file, or null
+	 * @throws IllegalArgumentException
+	 *             If the data is not an encoded message
+	 */
+	String decode(byte[] data, ACASMessage message) {
+		final byte[] buffer = mBuffer;
+		mBuffer = data;
+		mPosition = 0;
+		try {
+			if (data.length < HEADER_SIZE || data[0] != MAGIC || data[1] != VERSION) {
+				throw new IllegalArgumentException("Not an encoded message");
+			}
+			final int flags = data[2] & 0xFF;
+			message.mPriority = toPriority(data[3]);
+			mPosition = HEADER_SIZE;
+			if ((flags & FLAG_COMPRESSED) != 0) {
+				// The inflated data is kept by the message payload, it can not be a reused buffer
+				final int bodyLength = readVarint();
+				if (!ACASCompressor.isValidLength(data.length - mPosition, bodyLength)) {
+					throw new IllegalArgumentException("Invalid compressed length");
+				}
+				final byte[] inflated = new byte[HEADER_SIZE + bodyLength];
+				try {
+					mCompressor.inflate(data, mPosition, data.length - mPosition, inflated, HEADER_SIZE, bodyLength);
+				} catch (DataFormatException e) {
+					throw new IllegalArgumentException("Corrupted compressed message");
+				}
+				data = inflated;
+				mBuffer = inflated;
+				mPosition = HEADER_SIZE;
+			}
+			message.mId = readFixed64();
+			if ((flags & FLAG_CORRELATION) != 0) {
+				message.mCorrelationId = readFixed64();
+			}
+			if ((flags & FLAG_RESPONSE) != 0) {
+				message.mResponseTo = readFixed64();
+			}
+			if ((flags & FLAG_SEND_SEQUENCE) != 0) {
+				message.mSendSequence = readFixed64();
+			}
+			message.mIdSender = readString();
+			message.mIdReceiver = (flags & FLAG_BROADCAST) != 0 ? ACASMessage.ID_BROADCAST : readString();
+			if ((flags & FLAG_TOPIC) != 0) {
+				message.mTopic = readString();
+			}
+
+			String sharedPayload = null;
+			if ((flags & FLAG_SHARED_PAYLOAD) != 0) {
+				sharedPayload = readString();
+			} else if ((flags & FLAG_INLINE_PAYLOAD) != 0) {
+				final int length = readLength(1);
+				message.mPayload = ByteBuffer.wrap(data, mPosition, length).slice();
+				mPosition += length;
+			}
+
+			message.mExtras = readBundle(0);
+			return sharedPayload;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated encoded message");
+		} finally {
+			mBuffer = buffer;
+		}
+	}
+
+	private boolean writeBundle(Bundle bundle, int depth) {
+		if (depth >= BUNDLE_DEPTH_MAX) {
+			return false;
+		}
+		if (bundle == null) {
+			writeVarint(0);
+			return true;
+		}
+		final Set<String> keys = bundle.keySet();
+		writeVarint(keys.size());
+		for (String key : keys) {
+			writeString(key);
+			if (!writeValue(bundle.get(key), depth)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean writeValue(Object value, int depth) {
+		ensure(9);
+		if (value == null) {
+			mBuffer[mPosition++] = TYPE_NULL;
+		} else if (value instanceof String) {
+			mBuffer[mPosition++] = TYPE_STRING;
+			writeString((String) value);
+		} else if (value instanceof Integer) {
+			mBuffer[mPosition++] = TYPE_INT;
+			writeVarint(zigzag(((Integer) value).intValue()));
+		} else if (value instanceof Long) {
+			mBuffer[mPosition++] = TYPE_LONG;
+			writeVarint64(zigzag64(((Long) value).longValue()));
+		} else if (value instanceof Boolean) {
+			mBuffer[mPosition++] = TYPE_BOOLEAN;
+			mBuffer[mPosition++] = (byte) (((Boolean) value).booleanValue() ? 1 : 0);
+		} else if (value instanceof Double) {
+			mBuffer[mPosition++] = TYPE_DOUBLE;
+			writeFixed64(Double.doubleToRawLongBits(((Double) value).doubleValue()));
+		} else if (value instanceof Float) {
+			mBuffer[mPosition++] = TYPE_FLOAT;
+			writeVarint(Float.floatToRawIntBits(((Float) value).floatValue()));
+		} else if (value instanceof Byte) {
+			mBuffer[mPosition++] = TYPE_BYTE;
+			mBuffer[mPosition++] = ((Byte) value).byteValue();
+		} else if (value instanceof Short) {
+			mBuffer[mPosition++] = TYPE_SHORT;
+			writeVarint(zigzag(((Short) value).shortValue()));
+		} else if (value instanceof Character) {
+			mBuffer[mPosition++] = TYPE_CHAR;
+			writeVarint(((Character) value).charValue());
+		} else if (value instanceof byte[]) {
+			mBuffer[mPosition++] = TYPE_BYTE_ARRAY;
+			final byte[] array = (byte[]) value;
+			writeVarint(array.length);
+			ensure(array.length);
+			System.arraycopy(array, 0, mBuffer, mPosition, array.length);
+			mPosition += array.length;
+		} else if (value instanceof int[]) {
+			mBuffer[mPosition++] = TYPE_INT_ARRAY;
+			final int[] array = (int[]) value;
+			writeVarint(array.length);
+			for (int i = 0; i < array.length; i++) {
+				writeVarint(zigzag(array[i]));
+			}
+		} else if (value instanceof long[]) {
+			mBuffer[mPosition++] = TYPE_LONG_ARRAY;
+			final long[] array = (long[]) value;
+			writeVarint(array.length);
+			for (int i = 0; i < array.length; i++) {
+				writeVarint64(zigzag64(array[i]));
+			}
+		} else if (value instanceof double[]) {
+			mBuffer[mPosition++] = TYPE_DOUBLE_ARRAY;
+			final double[] array = (double[]) value;
+			writeVarint(array.length);
+			for (int i = 0; i < array.length; i++) {
+				writeFixed64(Double.doubleToRawLongBits(array[i]));
+			}
+		} else if (value instanceof boolean[]) {
+			mBuffer[mPosition++] = TYPE_BOOLEAN_ARRAY;
+			final boolean[] array = (boolean[]) value;
+			writeVarint(array.length);
+			ensure(array.length);
+			for (int i = 0; i < array.length; i++) {
+				mBuffer[mPosition++] = (byte) (array[i] ? 1 : 0);
+			}
+		} else if (value instanceof String[]) {
+			mBuffer[mPosition++] = TYPE_STRING_ARRAY;
+			final String[] array = (String[]) value;
+			writeVarint(array.length);
+			for (int i = 0; i < array.length; i++) {
+				writeString(array[i]);
+			}
+		} else if (value instanceof Bundle) {
+			mBuffer[mPosition++] = TYPE_BUNDLE;
+			return writeBundle((Bundle) value, depth + 1);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private Bundle readBundle(int depth) {
+		if (depth >= BUNDLE_DEPTH_MAX) {
+			throw new IllegalArgumentException("Bundle nested deeper than " + BUNDLE_DEPTH_MAX);
+		}
+		// An entry has at least a key and a type
+		final int count = readLength(2);
+		final Bundle bundle = new Bundle();
+		for (int i = 0; i < count; i++) {
+			final String key = readString();
+			final byte type = mBuffer[mPosition++];
+			switch (type) {
+			case TYPE_NULL:
+				bundle.putString(key, null);
+				break;
+			case TYPE_STRING:
+				bundle.putString(key, readString());
+				break;
+			case TYPE_INT:
+				bundle.putInt(key, unzigzag(readVarint()));
+				break;
+			case TYPE_LONG:
+				bundle.putLong(key, unzigzag64(readVarint64()));
+				break;
+			case TYPE_BOOLEAN:
+				bundle.putBoolean(key, mBuffer[mPosition++] != 0);
+				break;
+			case TYPE_DOUBLE:
+				bundle.putDouble(key, Double.longBitsToDouble(readFixed64()));
+				break;
+			case TYPE_FLOAT:
+				bundle.putFloat(key, Float.intBitsToFloat(readVarint()));
+				break;
+			case TYPE_BYTE:
+				bundle.putByte(key, mBuffer[mPosition++]);
+				break;
+			case TYPE_SHORT:
+				bundle.putShort(key, (short) unzigzag(readVarint()));
+				break;
+			case TYPE_CHAR:
+				bundle.putChar(key, (char) readVarint());
+				break;
+			case TYPE_BYTE_ARRAY: {
+				final byte[] array = new byte[readLength(1)];
+				System.arraycopy(mBuffer, mPosition, array, 0, array.length);
+				mPosition += array.length;
+				bundle.putByteArray(key, array);
+				break;
+			}
+			case TYPE_INT_ARRAY: {
+				final int[] array = new int[readLength(1)];
+				for (int j = 0; j < array.length; j++) {
+					array[j] = unzigzag(readVarint());
+				}
+				bundle.putIntArray(key, array);
+				break;
+			}
+			case TYPE_LONG_ARRAY: {
+				final long[] array = new long[readLength(1)];
+				for (int j = 0; j < array.length; j++) {
+					array[j] = unzigzag64(readVarint64());
+				}
+				bundle.putLongArray(key, array);
+				break;
+			}
+			case TYPE_DOUBLE_ARRAY: {
+				final double[] array = new double[readLength(8)];
+				for (int j = 0; j < array.length; j++) {
+					array[j] = Double.longBitsToDouble(readFixed64());
+				}
+				bundle.putDoubleArray(key, array);
+				break;
+			}
+			case TYPE_BOOLEAN_ARRAY: {
+				final boolean[] array = new boolean[readLength(1)];
+				for (int j = 0; j < array.length; j++) {
+					array[j] = mBuffer[mPosition++] != 0;
+				}
+				bundle.putBooleanArray(key, array);
+				break;
+			}
+			case TYPE_STRING_ARRAY: {
+				final String[] array = new String[readLength(1)];
+				for (int j = 0; j < array.length; j++) {
+					array[j] = readString();
+				}
+				bundle.putStringArray(key, array);
+				break;
+			}
+			case TYPE_BUNDLE:
+				bundle.putBundle(key, readBundle(depth + 1));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown value type " + type);
+			}
+		}
+		return bundle;
+	}
+
+	/**
+	 * Write a string as its char count plus one then its UTF-8 bytes, 0 for null
+	 */
+	private void writeString(String value) {
+		if (value == null) {
+			writeVarint(0);
+			return;
+		}
+		final int length = value.length();
+		writeVarint(length + 1);
+		ensure(length * 3);
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				mBuffer[mPosition++] = (byte) c;
+			} else if (c < 0x800) {
+				mBuffer[mPosition++] = (byte) (0xC0 | (c >> 6));
+				mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				mBuffer[mPosition++] = (byte) (0xE0 | (c >> 12));
+				mBuffer[mPosition++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				mBuffer[mPosition++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private String readString() {
+		final int length = readVarint() - 1;
+		if (length < 0) {
+			return null;
+		}
+		if (length > mBuffer.length - mPosition) {
+			throw new IllegalArgumentException("Invalid length " + length);
+		}
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			final int b = mBuffer[mPosition++] & 0xFF;
+			if (b < 0x80) {
+				chars[i] = (char) b;
+			} else if (b < 0xE0) {
+				chars[i] = (char) (((b & 0x1F) << 6) | (mBuffer[mPosition++] & 0x3F));
+			} else {
+				final int b2 = mBuffer[mPosition++] & 0x3F;
+				chars[i] = (char) (((b & 0x0F) << 12) | (b2 << 6) | (mBuffer[mPosition++] & 0x3F));
+			}
+		}
+		return new String(chars);
+	}
+
+	private void writeVarint(int value) {
+		ensure(5);
+		while ((value & ~0x7F) != 0) {
+			mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		mBuffer[mPosition++] = (byte) value;
+	}
+
+	private void writeVarint64(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			mBuffer[mPosition++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		mBuffer[mPosition++] = (byte) value;
+	}
+
+	/**
+	 * Read a count of elements, each taking at least the given number of bytes in the
+	 * remaining data
+	 */
+	private int readLength(int bytesMin) {
+		final int length = readVarint();
+		if (length < 0 || length > (mBuffer.length - mPosition) / bytesMin) {
+			throw new IllegalArgumentException("Invalid length " + length);
+		}
+		return length;
+	}
+
+	private int readVarint() {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final byte b = mBuffer[mPosition++];
+			result |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	private long readVarint64() {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = mBuffer[mPosition++];
+			result |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	private void writeFixed64(long value) {
+		ensure(8);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			mBuffer[mPosition++] = (byte) (value >>> shift);
+		}
+	}
+
+	private long readFixed64() {
+		long result = 0;
+		for (int i = 0; i < 8; i++) {
+			result = (result << 8) | (mBuffer[mPosition++] & 0xFF);
+		}
+		return result;
+	}
+
+	/**
+	 * Get a priority from its transported ordinal, an unknown one is normal
+	 */
+	static ACASPriority toPriority(int ordinal) {
+		final ACASPriority[] priorities = ACASPriority.values();
+		return ordinal >= 0 && ordinal < priorities.length ? priorities[ordinal] : ACASPriority.NORMAL;
+	}
+
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long zigzag64(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag64(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private void ensure(int needed) {
+		if (mPosition + needed > mBuffer.length) {
+			final byte[] grown = new byte[Math.max(mBuffer.length * 2, mPosition + needed)];
+			System.arraycopy(mBuffer, 0, grown, 0, mPosition);
+			mBuffer = grown;
+		}
+	}
+}
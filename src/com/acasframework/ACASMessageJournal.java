@@ -0,0 +1,325 @@
+package com.acasframework;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>Append-only journal of the received messages, written through memory-mapped
+ * segment files so that the history survives a restart of the process.</p>
+ * <p>Each message is encoded by the binary codec and appended to the current segment,
+ * a full segment is closed and a new one is mapped. The only heap kept per message is
+ * its offset in the index of its segment. The oldest segment is deleted as a whole
+ * once the number of segments is over the maximum.</p>
+ * <p>Record layout: the encoded length on 4 bytes then the encoded message, a zero
+ * length ends the segment. The data is in the page cache as soon as it is written and
+ * survives the death of the process, not of the system. Callers must synchronize on
+ * the journal.</p>
+ */
+class ACASMessageJournal {
+
+	static final String TAG = ACASMessageJournal.class.getSimpleName();
+
+	static final String FILE_PREFIX = "acas-journal-";
+	static final String FILE_SUFFIX = ".log";
+
+	static final int MAGIC = 0x41434a4c;
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_HEADER_SIZE = 4;
+
+	/**
+	 * One mapped segment file with the offsets of its records
+	 */
+	static final class Segment {
+		final File mFile;
+		final long mFirstSequence;
+		final MappedByteBuffer mData;
+		int[] mOffsets = new int[64];
+		int mCount = 0;
+
+		Segment(File file, long firstSequence, MappedByteBuffer data) {
+			mFile = file;
+			mFirstSequence = firstSequence;
+			mData = data;
+		}
+
+		void addOffset(int offset) {
+			if (mCount == mOffsets.length) {
+				final int[] offsets = new int[mCount * 2];
+				System.arraycopy(mOffsets, 0, offsets, 0, mCount);
+				mOffsets = offsets;
+			}
+			mOffsets[mCount++] = offset;
+		}
+	}
+
+	private final File mDirectory;
+	private final int mSegmentBytes;
+	private int mSegmentsMax;
+	// Oldest first, a few segments only
+	private final ArrayList<Segment> mSegments = new ArrayList<Segment>();
+	private final ACASMessageCodec mCodec = new ACASMessageCodec();
+	private long mNextSequence = 0;
+	private boolean mClosed;
+
+	/**
+	 * Open the journal, the existing segments are scanned to rebuild the index
+	 *
+	 * @param directory
+	 * @param segmentBytes
+	 *            The size of one segment file
+	 * @param segmentsMax
+	 *            The number of segments kept, at least the one being written
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             If segmentsMax is lower than 1
+	 */
+	ACASMessageJournal(File directory, int segmentBytes, int segmentsMax) throws IOException {
+		checkSegmentsMax(segmentsMax);
+		mDirectory = directory;
+		mSegmentBytes = segmentBytes;
+		mSegmentsMax = segmentsMax;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create journal directory " + directory);
+		}
+		final String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+			}
+		});
+		if (names != null) {
+			// Fixed width hexadecimal names sort by first sequence
+			Arrays.sort(names);
+			for (String name : names) {
+				openSegment(new File(directory, name));
+			}
+		}
+		trim();
+	}
+
+	void setSegmentsMax(int segmentsMax) {
+		checkSegmentsMax(segmentsMax);
+		mSegmentsMax = segmentsMax;
+		trim();
+	}
+
+	/**
+	 * Get the sequence of the oldest message in the journal
+	 */
+	long firstSequence() {
+		return mSegments.isEmpty() ? mNextSequence : mSegments.get(0).mFirstSequence;
+	}
+
+	/**
+	 * Get the sequence of the next appended message
+	 */
+	long nextSequence() {
+		return mNextSequence;
+	}
+
+	/**
+	 * Append a message
+	 *
+	 * @param message
+	 * @return the sequence of the message, or -1 if it can not be journaled
+	 */
+	long append(ACASMessage message) {
+		if (mClosed) {
+			return -1;
+		}
+		final byte[] data = mCodec.encode(message, null, 0);
+		if (data == null || HEADER_SIZE + RECORD_HEADER_SIZE + data.length + RECORD_HEADER_SIZE > mSegmentBytes) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Message tag={} can not be journaled", message.mId);
+			}
+			return -1;
+		}
+		Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+		// Keep room for the end mark
+		if (segment == null || segment.mData.position() + RECORD_HEADER_SIZE + data.length + RECORD_HEADER_SIZE > mSegmentBytes) {
+			try {
+				segment = createSegment();
+			} catch (IOException e) {
+				if (ACASLog.isLoggable(ACASLog.ERROR)) {
+					ACASLog.e(TAG, "Unable to create journal segment", e);
+				}
+				return -1;
+			}
+		}
+		final MappedByteBuffer buffer = segment.mData;
+		final int offset = buffer.position();
+		buffer.position(offset + RECORD_HEADER_SIZE);
+		buffer.put(data);
+		buffer.putInt(buffer.position(), 0);
+		// The length is written last so a torn record is never read
+		buffer.putInt(offset, data.length);
+		segment.addOffset(offset);
+		return mNextSequence++;
+	}
+
+	/**
+	 * Read a message
+	 *
+	 * @param sequence
+	 * @return the message, or null if it is no more in the journal
+	 */
+	ACASMessage read(long sequence) {
+		if (sequence < firstSequence() || sequence >= mNextSequence) {
+			return null;
+		}
+		for (int i = mSegments.size() - 1; i >= 0; i--) {
+			final Segment segment = mSegments.get(i);
+			if (sequence >= segment.mFirstSequence) {
+				return decode(segment, (int) (sequence - segment.mFirstSequence));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Read the most recent messages
+	 *
+	 * @param count
+	 * @return the messages, oldest first
+	 */
+	ArrayList<ACASMessage> readLast(int count) {
+		final long from = Math.max(firstSequence(), mNextSequence - count);
+		final ArrayList<ACASMessage> messages = new ArrayList<ACASMessage>((int) (mNextSequence - from));
+		for (long sequence = from; sequence < mNextSequence; sequence++) {
+			final ACASMessage message = read(sequence);
+			if (message != null) {
+				messages.add(message);
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Delete all the segments
+	 */
+	void clear() {
+		for (Segment segment : mSegments) {
+			segment.mFile.delete();
+		}
+		mSegments.clear();
+	}
+
+	/**
+	 * Release the segments, the journal refuses any append after. The files are kept for
+	 * the next journal opened on the directory and the mappings are unmapped once collected.
+	 */
+	void close() {
+		for (Segment segment : mSegments) {
+			segment.mData.force();
+		}
+		mSegments.clear();
+		mClosed = true;
+	}
+
+	private static void checkSegmentsMax(int segmentsMax) {
+		if (segmentsMax < 1) {
+			throw new IllegalArgumentException("Invalid segments max " + segmentsMax);
+		}
+	}
+
+	private ACASMessage decode(Segment segment, int index) {
+		if (index >= segment.mCount) {
+			return null;
+		}
+		final int offset = segment.mOffsets[index];
+		final ByteBuffer buffer = segment.mData.duplicate();
+		final byte[] data = new byte[buffer.getInt(offset)];
+		buffer.position(offset + RECORD_HEADER_SIZE);
+		buffer.get(data);
+		final ACASMessage message = new ACASMessage();
+		try {
+			mCodec.decode(data, message);
+		} catch (IllegalArgumentException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Corrupted journal record in {}: {}", segment.mFile.getName(), e);
+			}
+			return null;
+		}
+		return message;
+	}
+
+	private Segment createSegment() throws IOException {
+		final File file = new File(mDirectory, FILE_PREFIX + String.format("%016x", Long.valueOf(mNextSequence)) + FILE_SUFFIX);
+		final MappedByteBuffer data = map(file);
+		data.putInt(0, MAGIC);
+		data.putInt(HEADER_SIZE, 0);
+		data.position(HEADER_SIZE);
+		final Segment segment = new Segment(file, mNextSequence, data);
+		// Make room before adding so the new segment is never the one dropped
+		trim(mSegmentsMax - 1);
+		mSegments.add(segment);
+		return segment;
+	}
+
+	private void openSegment(File file) {
+		final String name = file.getName();
+		final long firstSequence;
+		final MappedByteBuffer data;
+		try {
+			firstSequence = Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()), 16);
+			data = map(file);
+		} catch (NumberFormatException e) {
+			return;
+		} catch (IOException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Unable to open journal segment {}: {}", name, e);
+			}
+			return;
+		}
+		if (data.getInt(0) != MAGIC || firstSequence < mNextSequence) {
+			file.delete();
+			return;
+		}
+		final Segment segment = new Segment(file, firstSequence, data);
+		int offset = HEADER_SIZE;
+		while (offset + RECORD_HEADER_SIZE <= mSegmentBytes) {
+			final int length = data.getInt(offset);
+			if (length <= 0 || offset + RECORD_HEADER_SIZE + length > mSegmentBytes) {
+				break;
+			}
+			segment.addOffset(offset);
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		data.position(offset);
+		mSegments.add(segment);
+		mNextSequence = firstSequence + segment.mCount;
+	}
+
+	private MappedByteBuffer map(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentBytes);
+		} finally {
+			// The mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Drop the oldest segments over the maximum, each one in one file delete
+	 */
+	private void trim() {
+		trim(mSegmentsMax);
+	}
+
+	private void trim(int segmentsMax) {
+		while (mSegments.size() > segmentsMax) {
+			final Segment segment = mSegments.remove(0);
+			if (!segment.mFile.delete() && ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Unable to delete journal segment {}", segment.mFile.getName());
+			}
+		}
+	}
+}
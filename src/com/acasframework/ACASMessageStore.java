@@ -0,0 +1,565 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Bounded received message history indexed by tag and by (sender, tag).</p>
+ * <p>Messages are kept in an intrusive doubly linked list in arrival order, each
+ * index maps a key to the chain of messages sharing it, so insert, lookup and
+ * removal are all O(1). Delivered and undelivered messages are also linked in two
+ * separate lists so the {@link ACASEvictionPolicy} picks its victim in O(1).</p>
+ * <p>The history is bounded by a message count and optionally by the total payload
+ * size, each insert evicts only what is needed. Evicted nodes are recycled so a full
+ * history does not allocate nodes. A removed message releases its shared payload.
+ * Callers must synchronize on the store.</p>
+ */
+class ACASMessageStore implements Iterable<ACASMessage> {
+
+	static final String TAG = ACASMessageStore.class.getSimpleName();
+
+	/**
+	 * One stored message, linked in arrival order and into its index chains
+	 */
+	static final class Node {
+		ACASMessage mMessage;
+		Node mPrev;
+		Node mNext;
+		Node mPrevSameTag;
+		Node mNextSameTag;
+		Node mPrevSameKey;
+		Node mNextSameKey;
+		Node mPrevSameStatus;
+		Node mNextSameStatus;
+		boolean mDelivered;
+		int mBytes;
+	}
+
+	/**
+	 * Head and tail of the nodes sharing one delivery status
+	 */
+	static final class StatusList {
+		Node mHead;
+		Node mTail;
+		int mSize;
+
+		void append(Node node) {
+			node.mPrevSameStatus = mTail;
+			node.mNextSameStatus = null;
+			if (mTail == null) {
+				mHead = node;
+			} else {
+				mTail.mNextSameStatus = node;
+			}
+			mTail = node;
+			mSize++;
+		}
+
+		void unlink(Node node) {
+			if (node.mPrevSameStatus == null) {
+				mHead = node.mNextSameStatus;
+			} else {
+				node.mPrevSameStatus.mNextSameStatus = node.mNextSameStatus;
+			}
+			if (node.mNextSameStatus == null) {
+				mTail = node.mPrevSameStatus;
+			} else {
+				node.mNextSameStatus.mPrevSameStatus = node.mPrevSameStatus;
+			}
+			node.mPrevSameStatus = null;
+			node.mNextSameStatus = null;
+			mSize--;
+		}
+
+		void clear() {
+			mHead = null;
+			mTail = null;
+			mSize = 0;
+		}
+	}
+
+	/**
+	 * Head and tail of the nodes sharing one index key
+	 */
+	static final class Chain {
+		Node mHead;
+		Node mTail;
+	}
+
+	/**
+	 * Composite (sender, tag) index key
+	 */
+	static final class Key {
+		final String mIdSender;
+		final long mId;
+
+		Key(String idSender, long id) {
+			mIdSender = idSender;
+			mId = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return mId == other.mId && (mIdSender == null ? other.mIdSender == null : mIdSender.equals(other.mIdSender));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (int) (mId ^ (mId >>> 32)) + (mIdSender == null ? 0 : mIdSender.hashCode());
+		}
+	}
+
+	private final HashMap<Long, Chain> mTagIndex = new HashMap<Long, Chain>();
+	private final HashMap<Key, Chain> mKeyIndex = new HashMap<Key, Chain>();
+	private final StatusList mDelivered = new StatusList();
+	private final StatusList mUndelivered = new StatusList();
+	private Node mHead;
+	private Node mTail;
+	private int mSize = 0;
+	private long mBytes = 0;
+	private long mNextSequence = 0;
+	private long mEvictedCount = 0;
+
+	private Node mFree;
+	private int mFreeSize = 0;
+
+	// Evicted messages still waiting for their flow control credit, drained by the caller
+	final ArrayList<ACASMessage> mEvictedCredits = new ArrayList<ACASMessage>();
+
+	private int mCapacity;
+	private long mBytesMax;
+	private ACASEvictionPolicy mPolicy;
+
+	ACASMessageStore(int capacity, long bytesMax, ACASEvictionPolicy policy) {
+		mCapacity = capacity;
+		mBytesMax = bytesMax;
+		mPolicy = policy;
+	}
+
+	/**
+	 * Set the maximum number of stored messages, evict the surplus
+	 *
+	 * @param capacity
+	 * @return the number of evicted messages
+	 */
+	int setCapacity(int capacity) {
+		mCapacity = capacity;
+		int evicted = 0;
+		while (mSize > mCapacity) {
+			evictOne();
+			evicted++;
+		}
+		return evicted;
+	}
+
+	/**
+	 * Set the maximum total payload size of stored messages, 0 for unbounded
+	 *
+	 * @param bytesMax
+	 * @return the number of evicted messages
+	 */
+	int setBytesMax(long bytesMax) {
+		if (mBytesMax <= 0 && bytesMax > 0) {
+			// The sizes are only computed while bounded, count the messages stored before
+			mBytes = 0;
+			for (Node node = mHead; node != null; node = node.mNext) {
+				node.mBytes = node.mMessage.getPayloadSize();
+				mBytes += node.mBytes;
+			}
+		}
+		mBytesMax = bytesMax;
+		int evicted = 0;
+		while (mBytesMax > 0 && mBytes > mBytesMax && mSize > 0) {
+			evictOne();
+			evicted++;
+		}
+		return evicted;
+	}
+
+	void setPolicy(ACASEvictionPolicy policy) {
+		mPolicy = policy;
+	}
+
+	/**
+	 * Append a message at the end of the history, evicting as few messages as needed
+	 *
+	 * @param message
+	 * @return the number of evicted messages
+	 */
+	int add(ACASMessage message) {
+		final int bytes = mBytesMax > 0 ? message.getPayloadSize() : 0;
+
+		// Make room
+		int evicted = 0;
+		while (mSize > 0 && (mSize >= mCapacity || (mBytesMax > 0 && mBytes + bytes > mBytesMax))) {
+			evictOne();
+			evicted++;
+		}
+
+		final Node node = obtainNode();
+		node.mMessage = message;
+		node.mBytes = bytes;
+		node.mDelivered = message.mDelivered;
+		message.mStoreNode = node;
+		message.mSequence = mNextSequence++;
+		mBytes += bytes;
+
+		// Arrival order
+		node.mPrev = mTail;
+		if (mTail == null) {
+			mHead = node;
+		} else {
+			mTail.mNext = node;
+		}
+		mTail = node;
+
+		// Tag index
+		final Long tag = Long.valueOf(message.mId);
+		Chain chain = mTagIndex.get(tag);
+		if (chain == null) {
+			chain = new Chain();
+			mTagIndex.put(tag, chain);
+		}
+		node.mPrevSameTag = chain.mTail;
+		if (chain.mTail == null) {
+			chain.mHead = node;
+		} else {
+			chain.mTail.mNextSameTag = node;
+		}
+		chain.mTail = node;
+
+		// Sender and tag index
+		final Key key = new Key(message.mIdSender, message.mId);
+		chain = mKeyIndex.get(key);
+		if (chain == null) {
+			chain = new Chain();
+			mKeyIndex.put(key, chain);
+		}
+		node.mPrevSameKey = chain.mTail;
+		if (chain.mTail == null) {
+			chain.mHead = node;
+		} else {
+			chain.mTail.mNextSameKey = node;
+		}
+		chain.mTail = node;
+
+		// Delivery status
+		if (node.mDelivered) {
+			mDelivered.append(node);
+		} else {
+			mUndelivered.append(node);
+		}
+
+		mSize++;
+		return evicted;
+	}
+
+	/**
+	 * Move a stored message to the delivered list
+	 *
+	 * @param message
+	 */
+	void markDelivered(ACASMessage message) {
+		final Node node = message.mStoreNode;
+		if (node == null || node.mDelivered) {
+			return;
+		}
+		mUndelivered.unlink(node);
+		node.mDelivered = true;
+		mDelivered.append(node);
+	}
+
+	/**
+	 * Remove a message from the history
+	 *
+	 * @param message
+	 * @return true if the message was stored
+	 */
+	boolean remove(ACASMessage message) {
+		if (message.mStoreNode == null) {
+			return false;
+		}
+		unlink(message.mStoreNode);
+		return true;
+	}
+
+	/**
+	 * Remove the oldest messages of one delivery status, walking only that status list,
+	 * the removed messages still waiting for their credit go to {@link #mEvictedCredits}
+	 *
+	 * @param delivered
+	 * @param max
+	 *            The number of messages removed at most
+	 * @return the number of removed messages
+	 */
+	int removeByStatus(boolean delivered, int max) {
+		final StatusList list = delivered ? mDelivered : mUndelivered;
+		int removed = 0;
+		while (removed < max && list.mHead != null) {
+			final Node node = list.mHead;
+			if (node.mMessage.mCreditPending) {
+				mEvictedCredits.add(node.mMessage);
+			}
+			unlink(node);
+			removed++;
+		}
+		return removed;
+	}
+
+	/**
+	 * Get the oldest message with this tag
+	 *
+	 * @param messageId
+	 * @return the message or null if not found
+	 */
+	ACASMessage getById(long messageId) {
+		final Chain chain = mTagIndex.get(Long.valueOf(messageId));
+		return chain == null ? null : chain.mHead.mMessage;
+	}
+
+	/**
+	 * Get the oldest message with this tag sent by this sender
+	 *
+	 * @param idSender
+	 * @param messageId
+	 * @return the message or null if not found
+	 */
+	ACASMessage getBySenderAndId(String idSender, long messageId) {
+		final Chain chain = mKeyIndex.get(new Key(idSender, messageId));
+		return chain == null ? null : chain.mHead.mMessage;
+	}
+
+	/**
+	 * Get the oldest message of the history
+	 *
+	 * @return the message or null if empty
+	 */
+	ACASMessage first() {
+		return mHead == null ? null : mHead.mMessage;
+	}
+
+	int size() {
+		return mSize;
+	}
+
+	/**
+	 * Get the sequence of the last stored message
+	 *
+	 * @return the sequence, -1 if nothing has been stored
+	 */
+	long lastSequence() {
+		return mNextSequence - 1;
+	}
+
+	/**
+	 * Copy the undelivered messages in arrival order, walking only the undelivered list
+	 *
+	 * @param out
+	 */
+	void collectUndelivered(ArrayList<ACASMessage> out) {
+		out.ensureCapacity(out.size() + mUndelivered.mSize);
+		for (Node node = mUndelivered.mHead; node != null; node = node.mNextSameStatus) {
+			out.add(node.mMessage);
+		}
+	}
+
+	/**
+	 * Copy the most recent messages in arrival order
+	 *
+	 * @param count
+	 * @param out
+	 */
+	void collectLast(int count, ArrayList<ACASMessage> out) {
+		if (count <= 0) {
+			return;
+		}
+		Node node = mTail;
+		for (int i = 1; i < count && node != null && node.mPrev != null; i++) {
+			node = node.mPrev;
+		}
+		for (; node != null; node = node.mNext) {
+			out.add(node.mMessage);
+		}
+	}
+
+	int deliveredSize() {
+		return mDelivered.mSize;
+	}
+
+	int undeliveredSize() {
+		return mUndelivered.mSize;
+	}
+
+	long bytes() {
+		return mBytes;
+	}
+
+	long evictedCount() {
+		return mEvictedCount;
+	}
+
+	boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	void clear() {
+		for (Node node = mHead; node != null; node = node.mNext) {
+			node.mMessage.mStoreNode = null;
+			node.mMessage.release();
+			if (node.mMessage.mCreditPending) {
+				mEvictedCredits.add(node.mMessage);
+			}
+		}
+		mTagIndex.clear();
+		mKeyIndex.clear();
+		mDelivered.clear();
+		mUndelivered.clear();
+		mHead = null;
+		mTail = null;
+		mSize = 0;
+		mBytes = 0;
+	}
+
+	/**
+	 * Iterate the history in arrival order, {@link Iterator#remove()} is supported
+	 */
+	@Override
+	public Iterator<ACASMessage> iterator() {
+		return new Iterator<ACASMessage>() {
+			private Node mNextNode = mHead;
+			private Node mLastNode = null;
+
+			@Override
+			public boolean hasNext() {
+				return mNextNode != null;
+			}
+
+			@Override
+			public ACASMessage next() {
+				if (mNextNode == null) {
+					throw new NoSuchElementException();
+				}
+				mLastNode = mNextNode;
+				mNextNode = mNextNode.mNext;
+				return mLastNode.mMessage;
+			}
+
+			@Override
+			public void remove() {
+				if (mLastNode == null) {
+					throw new IllegalStateException();
+				}
+				unlink(mLastNode);
+				mLastNode = null;
+			}
+		};
+	}
+
+	private void evictOne() {
+		final Node oldestDelivered = mDelivered.mHead;
+		final Node oldestUndelivered = mUndelivered.mHead;
+		final ACASMessage victim = mPolicy.selectVictim(oldestDelivered == null ? null : oldestDelivered.mMessage,
+				oldestUndelivered == null ? null : oldestUndelivered.mMessage);
+		final ACASMessage evicted = victim != null && victim.mStoreNode != null ? victim : mHead.mMessage;
+		unlink(evicted.mStoreNode);
+		if (evicted.mCreditPending) {
+			mEvictedCredits.add(evicted);
+		}
+		mEvictedCount++;
+	}
+
+	private Node obtainNode() {
+		final Node node = mFree;
+		if (node == null) {
+			return new Node();
+		}
+		mFree = node.mNext;
+		node.mNext = null;
+		mFreeSize--;
+		return node;
+	}
+
+	private void recycleNode(Node node) {
+		node.mMessage = null;
+		if (mFreeSize < mCapacity) {
+			node.mNext = mFree;
+			mFree = node;
+			mFreeSize++;
+		}
+	}
+
+	private void unlink(Node node) {
+		// Arrival order
+		if (node.mPrev == null) {
+			mHead = node.mNext;
+		} else {
+			node.mPrev.mNext = node.mNext;
+		}
+		if (node.mNext == null) {
+			mTail = node.mPrev;
+		} else {
+			node.mNext.mPrev = node.mPrev;
+		}
+
+		// Tag index
+		final ACASMessage message = node.mMessage;
+		final Long tag = Long.valueOf(message.mId);
+		Chain chain = mTagIndex.get(tag);
+		if (node.mPrevSameTag == null) {
+			chain.mHead = node.mNextSameTag;
+		} else {
+			node.mPrevSameTag.mNextSameTag = node.mNextSameTag;
+		}
+		if (node.mNextSameTag == null) {
+			chain.mTail = node.mPrevSameTag;
+		} else {
+			node.mNextSameTag.mPrevSameTag = node.mPrevSameTag;
+		}
+		if (chain.mHead == null) {
+			mTagIndex.remove(tag);
+		}
+
+		// Sender and tag index
+		final Key key = new Key(message.mIdSender, message.mId);
+		chain = mKeyIndex.get(key);
+		if (node.mPrevSameKey == null) {
+			chain.mHead = node.mNextSameKey;
+		} else {
+			node.mPrevSameKey.mNextSameKey = node.mNextSameKey;
+		}
+		if (node.mNextSameKey == null) {
+			chain.mTail = node.mPrevSameKey;
+		} else {
+			node.mNextSameKey.mPrevSameKey = node.mPrevSameKey;
+		}
+		if (chain.mHead == null) {
+			mKeyIndex.remove(key);
+		}
+
+		node.mPrev = null;
+		node.mNext = null;
+		node.mPrevSameTag = null;
+		node.mNextSameTag = null;
+		node.mPrevSameKey = null;
+		node.mNextSameKey = null;
+
+		// Delivery status
+		if (node.mDelivered) {
+			mDelivered.unlink(node);
+		} else {
+			mUndelivered.unlink(node);
+		}
+
+		message.mStoreNode = null;
+		message.release();
+		mBytes -= node.mBytes;
+		mSize--;
+		recycleNode(node);
+	}
+}
@@ -0,0 +1,218 @@
+package com.acasframework;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Latency histograms of the message path, each one broken down by tag and by peer
+ * module.</p>
+ * <p>The series are found in immutable sorted indexes swapped on each new key, so a
+ * record does not lock nor allocate once its tag and peer are known. The number of
+ * keys of each breakdown is bounded, the values of the next ones are only counted in
+ * the total.</p>
+ */
+class ACASMetrics {
+
+	static final String TAG = ACASMetrics.class.getSimpleName();
+
+	// Keys kept per breakdown
+	static final int SERIES_MAX = 64;
+
+	// Peer key of the broadcasts
+	static final String PEER_BROADCAST = "*";
+
+	/**
+	 * Immutable index of the tag histograms, sorted by tag
+	 */
+	static final class TagIndex {
+		final long[] mTags;
+		final ACASHistogram[] mHistograms;
+
+		TagIndex(long[] tags, ACASHistogram[] histograms) {
+			mTags = tags;
+			mHistograms = histograms;
+		}
+	}
+
+	/**
+	 * Immutable index of the peer histograms, a few modules only
+	 */
+	static final class PeerIndex {
+		final String[] mPeers;
+		final ACASHistogram[] mHistograms;
+
+		PeerIndex(String[] peers, ACASHistogram[] histograms) {
+			mPeers = peers;
+			mHistograms = histograms;
+		}
+	}
+
+	/**
+	 * One measured step
+	 */
+	static final class Series {
+		final ACASHistogram mTotal = new ACASHistogram();
+		private volatile TagIndex mByTag = new TagIndex(new long[0], new ACASHistogram[0]);
+		private volatile PeerIndex mByPeer = new PeerIndex(new String[0], new ACASHistogram[0]);
+
+		void record(long tag, String peer, long nanos) {
+			mTotal.recordNanos(nanos);
+			final ACASHistogram byTag = byTag(tag);
+			if (byTag != null) {
+				byTag.recordNanos(nanos);
+			}
+			final ACASHistogram byPeer = byPeer(peer == null ? PEER_BROADCAST : peer);
+			if (byPeer != null) {
+				byPeer.recordNanos(nanos);
+			}
+		}
+
+		private ACASHistogram byTag(long tag) {
+			TagIndex index = mByTag;
+			int position = Arrays.binarySearch(index.mTags, tag);
+			if (position >= 0) {
+				return index.mHistograms[position];
+			}
+			// A full index never grows, do not take the lock for each unknown tag
+			if (index.mTags.length >= SERIES_MAX) {
+				return null;
+			}
+			synchronized (this) {
+				index = mByTag;
+				position = Arrays.binarySearch(index.mTags, tag);
+				if (position >= 0) {
+					return index.mHistograms[position];
+				}
+				final int length = index.mTags.length;
+				if (length >= SERIES_MAX) {
+					return null;
+				}
+				final int insert = -position - 1;
+				final long[] tags = new long[length + 1];
+				final ACASHistogram[] histograms = new ACASHistogram[length + 1];
+				System.arraycopy(index.mTags, 0, tags, 0, insert);
+				System.arraycopy(index.mHistograms, 0, histograms, 0, insert);
+				System.arraycopy(index.mTags, insert, tags, insert + 1, length - insert);
+				System.arraycopy(index.mHistograms, insert, histograms, insert + 1, length - insert);
+				tags[insert] = tag;
+				histograms[insert] = new ACASHistogram();
+				mByTag = new TagIndex(tags, histograms);
+				return histograms[insert];
+			}
+		}
+
+		private ACASHistogram byPeer(String peer) {
+			PeerIndex index = mByPeer;
+			int position = indexOf(index.mPeers, peer);
+			if (position >= 0) {
+				return index.mHistograms[position];
+			}
+			if (index.mPeers.length >= SERIES_MAX) {
+				return null;
+			}
+			synchronized (this) {
+				index = mByPeer;
+				position = indexOf(index.mPeers, peer);
+				if (position >= 0) {
+					return index.mHistograms[position];
+				}
+				final int length = index.mPeers.length;
+				if (length >= SERIES_MAX) {
+					return null;
+				}
+				final String[] peers = new String[length + 1];
+				final ACASHistogram[] histograms = new ACASHistogram[length + 1];
+				System.arraycopy(index.mPeers, 0, peers, 0, length);
+				System.arraycopy(index.mHistograms, 0, histograms, 0, length);
+				peers[length] = peer;
+				histograms[length] = new ACASHistogram();
+				mByPeer = new PeerIndex(peers, histograms);
+				return histograms[length];
+			}
+		}
+
+		Map<Long, ACASLatency> snapshotByTag() {
+			final TagIndex index = mByTag;
+			final HashMap<Long, ACASLatency> snapshot = new HashMap<Long, ACASLatency>();
+			for (int i = 0; i < index.mTags.length; i++) {
+				snapshot.put(Long.valueOf(index.mTags[i]), index.mHistograms[i].snapshot());
+			}
+			return Collections.unmodifiableMap(snapshot);
+		}
+
+		Map<String, ACASLatency> snapshotByPeer() {
+			final PeerIndex index = mByPeer;
+			final HashMap<String, ACASLatency> snapshot = new HashMap<String, ACASLatency>();
+			for (int i = 0; i < index.mPeers.length; i++) {
+				snapshot.put(index.mPeers[i], index.mHistograms[i].snapshot());
+			}
+			return Collections.unmodifiableMap(snapshot);
+		}
+
+		synchronized void reset() {
+			mTotal.reset();
+			mByTag = new TagIndex(new long[0], new ACASHistogram[0]);
+			mByPeer = new PeerIndex(new String[0], new ACASHistogram[0]);
+		}
+	}
+
+	private final Series[] mSeries;
+
+	// Duration of the module list downloads
+	final ACASHistogram mModuleSync = new ACASHistogram();
+	volatile long mLastModuleSync = 0;
+
+	ACASMetrics() {
+		final ACASLatencyKind[] kinds = ACASLatencyKind.values();
+		mSeries = new Series[kinds.length];
+		for (int i = 0; i < kinds.length; i++) {
+			mSeries[i] = new Series();
+		}
+	}
+
+	/**
+	 * Record the time of one step of a message
+	 *
+	 * @param kind
+	 * @param message
+	 * @param peer
+	 *            The other module, null for a broadcast
+	 * @param nanos
+	 */
+	void record(ACASLatencyKind kind, ACASMessage message, String peer, long nanos) {
+		mSeries[kind.ordinal()].record(message.mId, peer, nanos);
+	}
+
+	Series series(ACASLatencyKind kind) {
+		return mSeries[kind.ordinal()];
+	}
+
+	/**
+	 * Record the end of a module list download
+	 *
+	 * @param nanos
+	 *            The duration of the download
+	 */
+	void recordModuleSync(long nanos) {
+		mModuleSync.recordNanos(nanos);
+		mLastModuleSync = System.currentTimeMillis();
+	}
+
+	void reset() {
+		for (Series series : mSeries) {
+			series.reset();
+		}
+		mModuleSync.reset();
+	}
+
+	private static int indexOf(String[] values, String value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i].equals(value)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,15 @@
+package com.acasframework;
+
+/**
+ * Implement this interface for be notified when a message listener
+ * runs over the listener budget.
+ */
+public interface ACASOnSlowListener {
+	/**
+	 * Called once each time a listener becomes slow, on the thread which detects it
+	 * @param listener the slow listener
+	 * @param elapsed the time spent in the callback so far, in ms
+	 * @param policy the action taken
+	 */
+	public void onSlowListener(ACASOnMessageReceivedListener listener, long elapsed, ACASSlowListenerPolicy policy);
+}
@@ -0,0 +1,295 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.os.Process;
+
+/**
+ * <p>Durable store-and-forward of the outbound messages.</p>
+ * <p>A queued message is persisted until it has been handed to the system. The writes
+ * are group committed by one background worker: the inserts and deletes collected
+ * during the flush interval are written in one transaction, and a message sent before
+ * the flush is never written at all.</p>
+ * <p>The stored messages are replayed when the process starts, and a message for a
+ * module which is not installed is kept until the module list changes. Replayed
+ * messages are handed to the send queue only while it has room, the worker retries the
+ * others later, so a replay never blocks nor fails. Delivery is at
+ * least once, a message sent just before the process dies is sent again.</p>
+ */
+class ACASOutbox implements Runnable {
+
+	static final String TAG = ACASOutbox.class.getSimpleName();
+
+	static final String WORKER_NAME = "ACAS-outbox";
+
+	// Number of pending writes which triggers a flush before the end of the interval
+	static final int FLUSH_BATCH = 256;
+
+	// Time in ms between two tries to hand the replayed messages to a full send queue
+	static final long REPLAY_RETRY_INTERVAL = 100;
+
+	private final ACASCommunication mCommunication;
+	private final ACASOutboxDAO mDAO;
+	private final ACASMessageCodec mCodec = new ACASMessageCodec();
+	private long mFlushInterval;
+	private boolean mClosed = false;
+	private long mLastId;
+
+	// Pending writes, guarded by mInserts
+	private final LinkedHashMap<Long, ACASMessage> mInserts = new LinkedHashMap<Long, ACASMessage>();
+	private final ArrayList<Long> mDeletes = new ArrayList<Long>();
+
+	// Messages waiting for their destination module
+	private final LinkedList<ACASMessage> mDeferred = new LinkedList<ACASMessage>();
+	// Replayed messages waiting for room in the send queue, guarded by mInserts
+	private final LinkedList<ACASMessage> mReplay = new LinkedList<ACASMessage>();
+
+	// Worker state
+	private final ArrayList<Long> mWriteIds = new ArrayList<Long>();
+	private final ArrayList<ACASMessage> mWriteMessages = new ArrayList<ACASMessage>();
+	private final ArrayList<byte[]> mWriteData = new ArrayList<byte[]>();
+	private final ArrayList<Long> mWriteDeletes = new ArrayList<Long>();
+
+	ACASOutbox(ACASCommunication communication, long flushInterval) {
+		mCommunication = communication;
+		mFlushInterval = flushInterval;
+		mDAO = new ACASOutboxDAO(ACAS.mContext);
+		mLastId = mDAO.selectMaxId();
+		final Thread worker = new Thread(this, WORKER_NAME);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	void setFlushInterval(long flushInterval) {
+		synchronized (mInserts) {
+			mFlushInterval = flushInterval;
+			mInserts.notifyAll();
+		}
+	}
+
+	/**
+	 * Persist a message at the next flush
+	 *
+	 * @param message
+	 */
+	void add(ACASMessage message) {
+		synchronized (mInserts) {
+			message.mOutboxId = ++mLastId;
+			mInserts.put(Long.valueOf(message.mOutboxId), message);
+			if (mInserts.size() >= FLUSH_BATCH) {
+				mInserts.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Forget a message which has been sent or cancelled
+	 *
+	 * @param message
+	 */
+	void remove(ACASMessage message) {
+		synchronized (mInserts) {
+			final long id = message.mOutboxId;
+			if (id == 0) {
+				return;
+			}
+			message.mOutboxId = 0;
+			if (mInserts.remove(Long.valueOf(id)) == null) {
+				mDeletes.add(Long.valueOf(id));
+				if (mDeletes.size() >= FLUSH_BATCH) {
+					mInserts.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keep a message until its destination module is installed
+	 *
+	 * @param message
+	 */
+	void defer(ACASMessage message) {
+		if (ACASLog.isLoggable(ACASLog.INFO)) {
+			ACASLog.i(TAG, "Module {} unknown, keep message tag={}", message.mIdReceiver, message.mId);
+		}
+		synchronized (mDeferred) {
+			mDeferred.addLast(message);
+		}
+	}
+
+	/**
+	 * Queue again the deferred messages through the worker, use it each time the module
+	 * list changes
+	 */
+	void replayDeferred() {
+		final ArrayList<ACASMessage> messages;
+		synchronized (mDeferred) {
+			if (mDeferred.isEmpty()) {
+				return;
+			}
+			messages = new ArrayList<ACASMessage>(mDeferred);
+			mDeferred.clear();
+		}
+		synchronized (mInserts) {
+			mReplay.addAll(messages);
+			mInserts.notifyAll();
+		}
+	}
+
+	/**
+	 * Write the pending writes and stop the worker, the stored messages stay for the next start
+	 */
+	void close() {
+		synchronized (mInserts) {
+			mClosed = true;
+			mInserts.notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		replay();
+		try {
+			boolean closed = false;
+			while (!closed) {
+				final boolean stalled = !requeue();
+				synchronized (mInserts) {
+					while (!mClosed && mInserts.isEmpty() && mDeletes.isEmpty()) {
+						if (stalled) {
+							// The send queue is full, retry the replay later
+							mInserts.wait(REPLAY_RETRY_INTERVAL);
+							break;
+						}
+						if (!mReplay.isEmpty()) {
+							break;
+						}
+						mInserts.wait();
+					}
+					// Collect more changes during the interval
+					final long deadline = System.currentTimeMillis() + mFlushInterval;
+					long remaining = mInserts.isEmpty() && mDeletes.isEmpty() ? 0 : mFlushInterval;
+					while (!mClosed && remaining > 0 && mInserts.size() < FLUSH_BATCH && mDeletes.size() < FLUSH_BATCH) {
+						mInserts.wait(remaining);
+						remaining = deadline - System.currentTimeMillis();
+					}
+					closed = mClosed;
+					for (Map.Entry<Long, ACASMessage> entry : mInserts.entrySet()) {
+						mWriteIds.add(entry.getKey());
+						mWriteMessages.add(entry.getValue());
+					}
+					mInserts.clear();
+					mWriteDeletes.addAll(mDeletes);
+					mDeletes.clear();
+				}
+				flush();
+			}
+		} catch (InterruptedException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Outbox worker interrupted");
+			}
+		}
+	}
+
+	/**
+	 * Encode, out of the lock, and write the collected changes in one transaction
+	 */
+	private void flush() {
+		if (mWriteIds.isEmpty() && mWriteDeletes.isEmpty()) {
+			return;
+		}
+		int count = 0;
+		for (int i = 0; i < mWriteMessages.size(); i++) {
+			final ACASMessage message = mWriteMessages.get(i);
+			final byte[] data = mCodec.encode(message, null, 0);
+			if (data == null) {
+				if (ACASLog.isLoggable(ACASLog.WARN)) {
+					ACASLog.w(TAG, "Extras of message tag={} not supported, message not persisted", message.mId);
+				}
+				continue;
+			}
+			mWriteIds.set(count++, mWriteIds.get(i));
+			mWriteData.add(data);
+		}
+		while (mWriteIds.size() > count) {
+			mWriteIds.remove(mWriteIds.size() - 1);
+		}
+		try {
+			mDAO.write(mWriteIds, mWriteData, mWriteDeletes);
+			if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+				ACASLog.d(TAG, "Outbox flush {} insert(s) {} delete(s)", mWriteIds.size(), mWriteDeletes.size());
+			}
+		} catch (RuntimeException e) {
+			if (ACASLog.isLoggable(ACASLog.ERROR)) {
+				ACASLog.e(TAG, "Unable to write the outbox", e);
+			}
+		}
+		mWriteIds.clear();
+		mWriteMessages.clear();
+		mWriteData.clear();
+		mWriteDeletes.clear();
+	}
+
+	/**
+	 * Hand the replayed messages to the send queue in order, as long as it has room
+	 *
+	 * @return false if messages are left because the send queue is full
+	 */
+	private boolean requeue() {
+		while (true) {
+			final ACASMessage message;
+			synchronized (mInserts) {
+				if (mReplay.isEmpty()) {
+					return true;
+				}
+				message = mReplay.getFirst();
+			}
+			if (!mCommunication.mSendPipeline.offer(message)) {
+				return false;
+			}
+			synchronized (mInserts) {
+				mReplay.removeFirst();
+			}
+		}
+	}
+
+	/**
+	 * Collect the messages stored by a previous process for {@link #requeue()}
+	 */
+	private void replay() {
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final ArrayList<byte[]> data = new ArrayList<byte[]>();
+		try {
+			mDAO.selectAll(ids, data);
+		} catch (RuntimeException e) {
+			if (ACASLog.isLoggable(ACASLog.ERROR)) {
+				ACASLog.e(TAG, "Unable to read the outbox", e);
+			}
+			return;
+		}
+		if (!ids.isEmpty() && ACASLog.isLoggable(ACASLog.INFO)) {
+			ACASLog.i(TAG, "Replay {} stored message(s)", ids.size());
+		}
+		for (int i = 0; i < ids.size(); i++) {
+			final ACASMessage message = new ACASMessage();
+			try {
+				mCodec.decode(data.get(i), message);
+			} catch (IllegalArgumentException e) {
+				if (ACASLog.isLoggable(ACASLog.WARN)) {
+					ACASLog.w(TAG, "Corrupted stored message {}: {}", ids.get(i), e);
+				}
+				synchronized (mInserts) {
+					mDeletes.add(ids.get(i));
+				}
+				continue;
+			}
+			message.mOutboxId = ids.get(i).longValue();
+			synchronized (mInserts) {
+				mReplay.addLast(message);
+			}
+		}
+	}
+}
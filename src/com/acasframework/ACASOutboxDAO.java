@@ -0,0 +1,106 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Outbound messages persisted until they are sent, each one stored encoded by the binary codec
+ */
+class ACASOutboxDAO extends ACASDAO {
+
+	static final String TAG = ACASOutboxDAO.class.getSimpleName();
+
+	private static final String ID = "id";
+	private static final String DATA = "data";
+
+	private SQLiteStatement mInsert;
+	private SQLiteStatement mDelete;
+
+	public ACASOutboxDAO(Context context) {
+		super(context, "acas_outbox");
+
+		createTable(ID + " INTEGER PRIMARY KEY, `" + DATA + "` BLOB");
+	}
+
+	/**
+	 * Get the greatest id in the table
+	 *
+	 * @return the id, 0 if the table is empty
+	 */
+	long selectMaxId() {
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery("SELECT max(" + ID + ") FROM " + mTableName, null);
+			if (cursor == null || !cursor.moveToFirst()) {
+				return 0;
+			}
+			return cursor.getLong(0);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Get all the stored messages in insertion order
+	 *
+	 * @param ids
+	 *            Receives the ids
+	 * @param data
+	 *            Receives the encoded messages
+	 */
+	void selectAll(ArrayList<Long> ids, ArrayList<byte[]> data) {
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery("SELECT " + ID + ", `" + DATA + "` FROM " + mTableName + " ORDER BY " + ID, null);
+			if (cursor == null || !cursor.moveToFirst()) {
+				return;
+			}
+			while (!cursor.isAfterLast()) {
+				ids.add(Long.valueOf(cursor.getLong(0)));
+				data.add(cursor.getBlob(1));
+				cursor.moveToNext();
+			}
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Insert and delete messages in one transaction
+	 *
+	 * @param ids
+	 *            The ids of the inserted messages
+	 * @param data
+	 *            The encoded inserted messages
+	 * @param deletes
+	 *            The ids of the deleted messages
+	 */
+	void write(ArrayList<Long> ids, ArrayList<byte[]> data, ArrayList<Long> deletes) {
+		if (mInsert == null) {
+			mInsert = db.compileStatement("INSERT OR REPLACE INTO " + mTableName + " (" + ID + ", `" + DATA + "`) VALUES (?, ?)");
+			mDelete = db.compileStatement("DELETE FROM " + mTableName + " WHERE " + ID + " = ?");
+		}
+		try {
+			db.beginTransaction();
+			for (int i = 0; i < ids.size(); i++) {
+				mInsert.bindLong(1, ids.get(i).longValue());
+				mInsert.bindBlob(2, data.get(i));
+				mInsert.executeInsert();
+			}
+			for (int i = 0; i < deletes.size(); i++) {
+				mDelete.bindLong(1, deletes.get(i).longValue());
+				mDelete.execute();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.acasframework;
+
+/**
+ * <p>Scheduling class of a message, each class has its own lane in the send queue and
+ * in the listener queues.</p>
+ * <p>Lanes are served by weighted round robin so a higher class keeps a bounded latency
+ * while a lower one is flooded, without starving the lower ones.</p>
+ */
+public enum ACASPriority {
+	/**
+	 * Control messages, served first and never batched
+	 */
+	HIGH(16),
+	/**
+	 * Default class
+	 */
+	NORMAL(4),
+	/**
+	 * Bulk data, served last and dropped first by the {@link ACASQueuePolicy#DROP_OLDEST} policy
+	 */
+	BULK(1);
+
+	// Number of consecutive messages taken from the lane in one round
+	final int mWeight;
+
+	private ACASPriority(int weight) {
+		mWeight = weight;
+	}
+}
@@ -0,0 +1,21 @@
+package com.acasframework;
+
+/**
+ * <p>Behaviour of a bounded ACAS queue when it is full.</p>
+ */
+public enum ACASQueuePolicy {
+	/**
+	 * Wait until there is room in the queue. A listener queue never makes the main
+	 * thread wait: a {@link ACASDispatchMode#MAIN} listener gets its oldest message
+	 * delivered right away, the other listeners drop it.
+	 */
+	BLOCK,
+	/**
+	 * Drop the oldest queued message to make room for the new one
+	 */
+	DROP_OLDEST,
+	/**
+	 * Refuse the new message with an {@link com.acasframework.exception.ACASQueueFullException}
+	 */
+	FAIL_FAST
+}
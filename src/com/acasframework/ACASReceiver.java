@@ -1,13 +1,16 @@
 package com.acasframework;
 
-import java.util.Iterator;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.Parcelable;
 
 /**
  * This class aims at receiving/sending datas from the other modules.
@@ -18,10 +21,12 @@ import android.util.Log;
 public class ACASReceiver extends BroadcastReceiver {
 
 	static final String TAG = ACASReceiver.class.getSimpleName();
+	
+	private static final ACASMessageCodec sCodec = new ACASMessageCodec();
 
 	public ACASReceiver() {
-		if (ACAS.DEBUG_MODE) {
-			Log.i(TAG, "Receiver created");
+		if (ACASLog.isLoggable(ACASLog.INFO)) {
+			ACASLog.i(TAG, "Receiver created");
 		}
 	}
 	
@@ -31,51 +36,200 @@ public class ACASReceiver extends BroadcastReceiver {
 		final String action = intent.getAction();
 		final Bundle extras = intent.getExtras();
 		
-		// Debug the receive data
-		if (ACAS.DEBUG_MODE) {
-			// Check action
-			if (action != null && action.length() > 0) {
-				Log.d(TAG, "onReceive action="+ intent.getAction());
-			} else {
-				Log.w(TAG, "onReceive with no action...");
+		// Dump the received data, built only when logged since walking the extras
+		// unparcels the whole bundle
+		ACASLog.log(ACASLog.VERBOSE, TAG, new ACASLog.Message() {
+			@Override
+			public String build() {
+				final StringBuilder dump = new StringBuilder();
+				if (action != null && action.length() > 0) {
+					dump.append("onReceive action=").append(action);
+				} else {
+					dump.append("onReceive with no action...");
+				}
+				if (extras == null || extras.isEmpty()) {
+					return dump.append("\n++ No extras data").toString();
+				}
+				dump.append("\n+ Extras size=").append(extras.size()).append(" list of all this:");
+				for (String key : extras.keySet()) {
+					dump.append("\n++ Key: ").append(key).append(" = ").append(extras.get(key));
+				}
+				return dump.toString();
 			}
-			
-			// Check extras
-			Log.i(TAG, "+ Extras size="+ extras.size() +" list of all this:");
-			if (extras != null && !extras.isEmpty()) {
-				final Set<String> keys = extras.keySet();
-				final Iterator<String> iterator = keys.iterator();
-			    while (iterator.hasNext()) {
-			    	final String key = iterator.next();
-			    	final Object val = extras.get(key);
-			    	if (val != null) {
-			    		Log.d(TAG, "++ Key: "+ key +" = "+ val.toString());
-			    	} else {
-			    		Log.d(TAG, "++ Key: "+ key +" = null");
-			    	}
-			    }
-			} else {
-				Log.d(TAG, "++ No extras data");
+		});
+		
+		// Every message is carried by the extras, an intent without them is not for us
+		if (extras == null) {
+			return;
+		}
+		
+		// Unpack envelope of batched messages
+		final Parcelable[] envelope = extras.getParcelableArray(ACASCommunication.EXTRA_ENVELOPE);
+		if (envelope != null) {
+			if (ACASLog.isLoggable(ACASLog.DEBUG)) {
+				ACASLog.d(TAG, "+ Envelope of {} messages", envelope.length);
+			}
+			for (Parcelable entry : envelope) {
+				final ACASMessage message = entry instanceof Bundle ? buildMessage((Bundle) entry) : null;
+				if (message != null) {
+					ACAS.mCommunication.onMessageReceiv(message);
+				}
 			}
+			return;
 		}
 		
+		// Transmit to communication part
+		final ACASMessage message = buildMessage(extras);
+		if (message != null) {
+			ACAS.mCommunication.onMessageReceiv(message);
+		}
+	}
+	
+	/**
+	 * Build a message from the received extras, any application can send them so a
+	 * malformed message is dropped instead of crashing the process
+	 * 
+	 * @param extras
+	 * @return the message, or null if it is malformed
+	 */
+	private ACASMessage buildMessage(Bundle extras) {
+		try {
+			return parseMessage(extras);
+		} catch (RuntimeException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Malformed message dropped: {}", e);
+			}
+			return null;
+		}
+	}
+	
+	private ACASMessage parseMessage(Bundle extras) {
 		// Build Message
 		final ACASMessage msg = new ACASMessage();
 		
+		// Decode the message sent by the binary codec
+		final byte[] binary = extras.getByteArray(ACASCommunication.EXTRA_BINARY);
+		if (binary != null) {
+			final String sharedPayload;
+			synchronized (sCodec) {
+				sharedPayload = sCodec.decode(binary, msg);
+			}
+			if (sharedPayload != null) {
+				mapSharedPayload(msg, sharedPayload);
+			}
+			return msg;
+		}
+		
 		// Extract message data
 		msg.mIdSender = extras.getString(ACASCommunication.EXTRA_SENDER_ID);
 		msg.mIdReceiver = extras.getString(ACASCommunication.EXTRA_RECEIVER_ID);
 		msg.mId = extras.getLong(ACASCommunication.EXTRA_ID);
+		msg.mCorrelationId = extras.getLong(ACASCommunication.EXTRA_CORRELATION_ID, 0);
+		msg.mResponseTo = extras.getLong(ACASCommunication.EXTRA_RESPONSE_TO, 0);
+		msg.mPriority = ACASMessageCodec.toPriority(extras.getInt(ACASCommunication.EXTRA_PRIORITY, ACASPriority.NORMAL.ordinal()));
+		msg.mSendSequence = extras.getLong(ACASCommunication.EXTRA_SEND_SEQUENCE, 0);
+		msg.mTopic = extras.getString(ACASCommunication.EXTRA_TOPIC);
 		
 		// Remove useless extras
 		extras.remove(ACASCommunication.EXTRA_RECEIVER_ID);
 		extras.remove(ACASCommunication.EXTRA_SENDER_ID);
 		extras.remove(ACASCommunication.EXTRA_ID);
+		extras.remove(ACASCommunication.EXTRA_CORRELATION_ID);
+		extras.remove(ACASCommunication.EXTRA_RESPONSE_TO);
+		extras.remove(ACASCommunication.EXTRA_PRIORITY);
+		extras.remove(ACASCommunication.EXTRA_SEND_SEQUENCE);
+		extras.remove(ACASCommunication.EXTRA_TOPIC);
+		
+		// Extract binary payload, map the large ones from their shared file
+		final byte[] payload = extras.getByteArray(ACASCommunication.EXTRA_PAYLOAD);
+		if (payload != null) {
+			final int length = extras.getInt(ACASCommunication.EXTRA_PAYLOAD_LENGTH, -1);
+			if (length < 0) {
+				msg.mPayload = ByteBuffer.wrap(payload);
+			} else {
+				// Deflated by the sender above its compression threshold
+				if (!ACASCompressor.isValidLength(payload.length, length)) {
+					throw new IllegalArgumentException("Invalid payload length " + length);
+				}
+				final byte[] inflated = new byte[length];
+				try {
+					synchronized (sCodec) {
+						sCodec.mCompressor.inflate(payload, 0, payload.length, inflated, 0, length);
+					}
+					msg.mPayload = ByteBuffer.wrap(inflated);
+				} catch (DataFormatException e) {
+					if (ACASLog.isLoggable(ACASLog.WARN)) {
+						ACASLog.w(TAG, "Unable to inflate payload of message tag={}: {}", msg.mId, e);
+					}
+				}
+				extras.remove(ACASCommunication.EXTRA_PAYLOAD_LENGTH);
+			}
+			extras.remove(ACASCommunication.EXTRA_PAYLOAD);
+		}
+		final String sharedPayload = extras.getString(ACASCommunication.EXTRA_SHARED_PAYLOAD);
+		if (sharedPayload != null) {
+			mapSharedPayload(msg, sharedPayload);
+			extras.remove(ACASCommunication.EXTRA_SHARED_PAYLOAD);
+		}
+		
+		// Restore the user extras deflated by the sender above its compression threshold
+		inflateExtras(extras, ACASCommunication.EXTRA_DEFLATED_BYTES, false);
+		inflateExtras(extras, ACASCommunication.EXTRA_DEFLATED_STRINGS, true);
 		
 		// Storage user extras data
 		msg.mExtras = extras;
-		
-		// Transmit to communication part
-		ACAS.mCommunication.onMessageReceiv(msg);
+		return msg;
+	}
+	
+	/**
+	 * Inflate back the extras listed in a marker bundle with their original byte length
+	 * 
+	 * @param extras
+	 * @param marker
+	 * @param string
+	 *            true if the extras were String
+	 * @throws IllegalArgumentException
+	 *             If an extra is missing or corrupted
+	 */
+	private static void inflateExtras(Bundle extras, String marker, boolean string) {
+		final Bundle lengths = extras.getBundle(marker);
+		if (lengths == null) {
+			return;
+		}
+		extras.remove(marker);
+		for (String key : lengths.keySet()) {
+			final byte[] data = extras.getByteArray(key);
+			final int length = lengths.getInt(key, -1);
+			if (data == null || !ACASCompressor.isValidLength(data.length, length)) {
+				throw new IllegalArgumentException("Invalid deflated extra " + key);
+			}
+			final byte[] inflated = new byte[length];
+			try {
+				synchronized (sCodec) {
+					sCodec.mCompressor.inflate(data, 0, data.length, inflated, 0, length);
+				}
+				if (string) {
+					extras.putString(key, new String(inflated, ACASCommunication.CHARSET));
+				} else {
+					extras.putByteArray(key, inflated);
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalArgumentException("Corrupted deflated extra " + key);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalArgumentException("Unsupported charset " + ACASCommunication.CHARSET);
+			}
+		}
+	}
+	
+	private static void mapSharedPayload(ACASMessage msg, String sharedPayload) {
+		try {
+			final File file = ACASSharedPayload.resolve(ACASCommunication.getSharedPayloadDirectory(), sharedPayload);
+			msg.mSharedPayload = ACASSharedPayload.map(file);
+			msg.mPayload = msg.mSharedPayload.mData;
+		} catch (IOException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Unable to map shared payload {}: {}", sharedPayload, e);
+			}
+		}
 	}
 }
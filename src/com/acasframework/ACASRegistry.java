@@ -0,0 +1,85 @@
+package com.acasframework;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Lock-free listener registry for frequent reads and rare writes.</p>
+ * <p>The elements are kept in an immutable array swapped atomically on each change,
+ * readers iterate the current snapshot without lock nor allocation.</p>
+ *
+ * @param <T> the element type
+ */
+class ACASRegistry<T> {
+
+	static final String TAG = ACASRegistry.class.getSimpleName();
+
+	private final AtomicReference<T[]> mSnapshot;
+
+	ACASRegistry(T[] empty) {
+		mSnapshot = new AtomicReference<T[]>(empty);
+	}
+
+	/**
+	 * Get the current elements, the returned array must not be modified
+	 *
+	 * @return the snapshot
+	 */
+	T[] snapshot() {
+		return mSnapshot.get();
+	}
+
+	/**
+	 * Append an element
+	 *
+	 * @param element
+	 */
+	void add(T element) {
+		while (true) {
+			final T[] current = mSnapshot.get();
+			final T[] next = newArray(current, current.length + 1);
+			System.arraycopy(current, 0, next, 0, current.length);
+			next[current.length] = element;
+			if (mSnapshot.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove an element, compared by identity
+	 *
+	 * @param element
+	 * @return true if the element was registered
+	 */
+	boolean remove(T element) {
+		while (true) {
+			final T[] current = mSnapshot.get();
+			int index = -1;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i] == element) {
+					index = i;
+					break;
+				}
+			}
+			if (index < 0) {
+				return false;
+			}
+			final T[] next = newArray(current, current.length - 1);
+			System.arraycopy(current, 0, next, 0, index);
+			System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+			if (mSnapshot.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	int size() {
+		return mSnapshot.get().length;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] newArray(T[] template, int length) {
+		return (T[]) Array.newInstance(template.getClass().getComponentType(), length);
+	}
+}
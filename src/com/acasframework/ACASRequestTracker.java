@@ -0,0 +1,138 @@
+package com.acasframework;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acasframework.exception.ACASQueueFullException;
+
+/**
+ * <p>Pending requests waiting for their response, keyed by correlation id.</p>
+ * <p>Each request is expired by a timer, the number of pending requests is bounded.</p>
+ */
+class ACASRequestTracker {
+
+	static final String TAG = ACASRequestTracker.class.getSimpleName();
+
+	static final String EXCEPTION_TOO_MANY_REQUESTS = "Too many requests wait for a response";
+	static final String TIMER_THREAD_NAME = "ACAS-request-timer-";
+
+	// Cancelled timeouts are purged from the timer queue after this number of responses
+	static final int PURGE_INTERVAL = 256;
+
+	/**
+	 * One request waiting for its response
+	 */
+	final class Pending implements Runnable {
+		final long mCorrelationId;
+		final String mIdDest;
+		final ACASFuture<ACASMessage> mFuture = new ACASFuture<ACASMessage>();
+		ScheduledFuture<?> mTimeout;
+
+		Pending(long correlationId, String idDest) {
+			mCorrelationId = correlationId;
+			mIdDest = idDest;
+		}
+
+		@Override
+		public void run() {
+			if (mPending.remove(Long.valueOf(mCorrelationId), this)) {
+				mPendingCount.decrementAndGet();
+				if (ACASLog.isLoggable(ACASLog.WARN)) {
+					ACASLog.w(TAG, "Request {} to {} timed out", mCorrelationId, mIdDest);
+				}
+				mFuture.fail(new TimeoutException());
+			}
+		}
+	}
+
+	private final ConcurrentHashMap<Long, Pending> mPending = new ConcurrentHashMap<Long, Pending>();
+	private final AtomicInteger mPendingCount = new AtomicInteger();
+	private final AtomicLong mNextId = new AtomicLong(new Random().nextLong() & Long.MAX_VALUE);
+	private final AtomicInteger mResponseCount = new AtomicInteger();
+	private final ScheduledThreadPoolExecutor mTimer = new ScheduledThreadPoolExecutor(1, new ACASDispatcher.NamedThreadFactory(TIMER_THREAD_NAME));
+	private volatile int mPendingMax;
+
+	ACASRequestTracker(int pendingMax) {
+		mPendingMax = pendingMax;
+	}
+
+	void setPendingMax(int pendingMax) {
+		mPendingMax = pendingMax;
+	}
+
+	int size() {
+		return mPendingCount.get();
+	}
+
+	/**
+	 * Register a request and start its timer
+	 *
+	 * @param message
+	 *            The request, its correlation id is set here
+	 * @param timeout
+	 *            The time to wait for the response in ms
+	 * @return the pending request
+	 * @throws ACASQueueFullException
+	 *             If too many requests are already pending
+	 */
+	Pending register(ACASMessage message, long timeout) {
+		if (mPendingCount.incrementAndGet() > mPendingMax) {
+			mPendingCount.decrementAndGet();
+			throw new ACASQueueFullException(EXCEPTION_TOO_MANY_REQUESTS);
+		}
+		long correlationId;
+		do {
+			correlationId = mNextId.incrementAndGet() & Long.MAX_VALUE;
+		} while (correlationId == 0);
+		message.mCorrelationId = correlationId;
+		final Pending pending = new Pending(correlationId, message.mIdReceiver);
+		mPending.put(Long.valueOf(correlationId), pending);
+		pending.mTimeout = mTimer.schedule(pending, timeout, TimeUnit.MILLISECONDS);
+		return pending;
+	}
+
+	/**
+	 * Remove a request without response, when it can not be sent
+	 *
+	 * @param pending
+	 * @param error
+	 */
+	void abort(Pending pending, Throwable error) {
+		if (mPending.remove(Long.valueOf(pending.mCorrelationId), pending)) {
+			mPendingCount.decrementAndGet();
+			pending.mTimeout.cancel(false);
+			pending.mFuture.fail(error);
+		}
+	}
+
+	/**
+	 * Complete the request answered by this response
+	 *
+	 * @param response
+	 * @return true if the response was expected
+	 */
+	boolean complete(ACASMessage response) {
+		final Pending pending = mPending.get(Long.valueOf(response.mResponseTo));
+		if (pending == null) {
+			return false;
+		}
+		if (pending.mIdDest != ACASMessage.ID_BROADCAST && !pending.mIdDest.equals(response.mIdSender)) {
+			return false;
+		}
+		if (!mPending.remove(Long.valueOf(pending.mCorrelationId), pending)) {
+			return false;
+		}
+		mPendingCount.decrementAndGet();
+		pending.mTimeout.cancel(false);
+		if (mResponseCount.incrementAndGet() % PURGE_INTERVAL == 0) {
+			mTimer.purge();
+		}
+		return pending.mFuture.set(response);
+	}
+}
@@ -0,0 +1,164 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Immutable index of the listener subscriptions.</p>
+ * <p>Subscribers are split by filter: no filter, one tag (hash map), a tag range
+ * (interval index), a sender (hash map) and a topic (segment trie). A message only
+ * reaches the matching subscribers, the table is rebuilt on each registration change.</p>
+ * <p>The subscribers matched by a topic are cached in the table, so the trie is walked
+ * once per topic and per registration change.</p>
+ */
+class ACASRoutingTable {
+
+	static final String TAG = ACASRoutingTable.class.getSimpleName();
+
+	static final ACASSubscriber[] NONE = new ACASSubscriber[0];
+	static final ACASRoutingTable EMPTY = new ACASRoutingTable(NONE);
+
+	// Number of topics cached, the topics come from any sender
+	static final int TOPIC_CACHE_MAX = 256;
+
+	final ACASSubscriber[] mAll;
+	private final HashMap<Long, ACASSubscriber[]> mByTag = new HashMap<Long, ACASSubscriber[]>();
+	private final HashMap<String, ACASSubscriber[]> mBySender = new HashMap<String, ACASSubscriber[]>();
+	private final ACASTopicTrie mByTopic = new ACASTopicTrie();
+	private final ConcurrentHashMap<String, ACASSubscriber[]> mTopicCache = new ConcurrentHashMap<String, ACASSubscriber[]>();
+
+	// Interval index, segment i covers tags from mBounds[i] to mBounds[i + 1] excluded
+	private final long[] mBounds;
+	private final ACASSubscriber[][] mSegments;
+
+	/**
+	 * Build the table of the given subscribers
+	 *
+	 * @param subscribers
+	 */
+	ACASRoutingTable(ACASSubscriber[] subscribers) {
+		final ArrayList<ACASSubscriber> all = new ArrayList<ACASSubscriber>();
+		final ArrayList<ACASSubscriber> ranges = new ArrayList<ACASSubscriber>();
+		final HashMap<Long, ArrayList<ACASSubscriber>> byTag = new HashMap<Long, ArrayList<ACASSubscriber>>();
+		final HashMap<String, ArrayList<ACASSubscriber>> bySender = new HashMap<String, ArrayList<ACASSubscriber>>();
+
+		for (ACASSubscriber subscriber : subscribers) {
+			if (subscriber.mTopicFilter != null) {
+				mByTopic.add(subscriber);
+			} else if (subscriber.mIdSender != null) {
+				add(bySender, subscriber.mIdSender, subscriber);
+			} else if (subscriber.mTagMin == subscriber.mTagMax) {
+				add(byTag, Long.valueOf(subscriber.mTagMin), subscriber);
+			} else if (subscriber.mTagMin == Long.MIN_VALUE && subscriber.mTagMax == Long.MAX_VALUE) {
+				all.add(subscriber);
+			} else {
+				ranges.add(subscriber);
+			}
+		}
+
+		mAll = all.toArray(NONE);
+		for (Map.Entry<Long, ArrayList<ACASSubscriber>> entry : byTag.entrySet()) {
+			mByTag.put(entry.getKey(), entry.getValue().toArray(NONE));
+		}
+		for (Map.Entry<String, ArrayList<ACASSubscriber>> entry : bySender.entrySet()) {
+			mBySender.put(entry.getKey(), entry.getValue().toArray(NONE));
+		}
+
+		// Cut the tag axis at each range bound
+		final long[] bounds = new long[ranges.size() * 2];
+		int count = 0;
+		for (ACASSubscriber subscriber : ranges) {
+			bounds[count++] = subscriber.mTagMin;
+			if (subscriber.mTagMax != Long.MAX_VALUE) {
+				bounds[count++] = subscriber.mTagMax + 1;
+			}
+		}
+		Arrays.sort(bounds, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || bounds[unique - 1] != bounds[i]) {
+				bounds[unique++] = bounds[i];
+			}
+		}
+		mBounds = new long[unique];
+		System.arraycopy(bounds, 0, mBounds, 0, unique);
+		mSegments = new ACASSubscriber[unique][];
+		final ArrayList<ACASSubscriber> covering = new ArrayList<ACASSubscriber>();
+		for (int i = 0; i < unique; i++) {
+			covering.clear();
+			for (ACASSubscriber subscriber : ranges) {
+				if (subscriber.mTagMin <= mBounds[i] && mBounds[i] <= subscriber.mTagMax) {
+					covering.add(subscriber);
+				}
+			}
+			mSegments[i] = covering.toArray(NONE);
+		}
+	}
+
+	/**
+	 * Get the subscribers of this exact tag
+	 */
+	ACASSubscriber[] byTag(long tag) {
+		final ACASSubscriber[] subscribers = mByTag.isEmpty() ? null : mByTag.get(Long.valueOf(tag));
+		return subscribers == null ? NONE : subscribers;
+	}
+
+	/**
+	 * Get the subscribers of a range containing this tag
+	 */
+	ACASSubscriber[] byRange(long tag) {
+		int low = 0;
+		int high = mBounds.length - 1;
+		int found = -1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (mBounds[mid] <= tag) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found < 0 ? NONE : mSegments[found];
+	}
+
+	/**
+	 * Get the subscribers of this sender, their tag range is not checked
+	 */
+	ACASSubscriber[] bySender(String idSender) {
+		final ACASSubscriber[] subscribers = idSender == null || mBySender.isEmpty() ? null : mBySender.get(idSender);
+		return subscribers == null ? NONE : subscribers;
+	}
+
+	/**
+	 * Get the subscribers of the topic of a message, their tag range is not checked
+	 */
+	ACASSubscriber[] byTopic(ACASMessage message) {
+		if (message.mTopic == null || mByTopic.isEmpty()) {
+			return NONE;
+		}
+		ACASSubscriber[] matched = mTopicCache.get(message.mTopic);
+		if (matched == null) {
+			final ArrayList<ACASSubscriber> subscribers = new ArrayList<ACASSubscriber>();
+			mByTopic.collect(message.topicSegments(), subscribers);
+			matched = subscribers.isEmpty() ? NONE : subscribers.toArray(NONE);
+			// Over the bound the table is used uncached until the next registration change
+			if (mTopicCache.size() < TOPIC_CACHE_MAX) {
+				mTopicCache.put(message.mTopic, matched);
+			}
+		}
+		return matched;
+	}
+
+	private static <K> void add(HashMap<K, ArrayList<ACASSubscriber>> map, K key, ACASSubscriber subscriber) {
+		ArrayList<ACASSubscriber> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<ACASSubscriber>();
+			map.put(key, list);
+		}
+		list.add(subscriber);
+	}
+}
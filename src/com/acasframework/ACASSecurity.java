@@ -40,6 +40,10 @@ class ACASSecurity {
 			Log.d(TAG, "Set key validation valid="+ valid);
 		}
         mIsValid = valid;
+        if (valid && ACAS.mCommunication != null) {
+        	// Flush messages queued before the key validation
+        	ACAS.mCommunication.mSendPipeline.wakeUp();
+        }
 	}
 	
 	@SuppressLint("DefaultLocale")
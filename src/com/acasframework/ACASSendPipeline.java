@@ -0,0 +1,474 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import com.acasframework.exception.ACASQueueFullException;
+
+import android.os.Process;
+
+/**
+ * <p>Outbound stage of the message bus.</p>
+ * <p>Any thread queues messages, one background worker drains the queue and hands
+ * each message to the system so callers never wait on the broadcast itself.</p>
+ * <p>With batching enabled the worker waits up to the batch window for more messages
+ * and sends them together in one envelope broadcast, bounded by the batch size.</p>
+ * <p>The queue has one lane per {@link ACASPriority}, a {@link ACASPriority#HIGH} message
+ * is never held back by the batch window.</p>
+ * <p>With flow control enabled a message to a destination without credit is parked out
+ * of the queue until the destination grants more, the parked messages still count in
+ * the queue capacity so that the producers feel the backpressure.</p>
+ */
+class ACASSendPipeline implements Runnable {
+
+	static final String TAG = ACASSendPipeline.class.getSimpleName();
+
+	static final String EXCEPTION_QUEUE_FULL = "The send queue is full";
+	static final String WORKER_NAME = "ACAS-sender";
+
+	final ACASLaneQueue mQueue = new ACASLaneQueue();
+	final ACASFlowControl mFlowControl;
+
+	private final ACASCommunication mCommunication;
+	private int mCapacity;
+	private ACASQueuePolicy mPolicy;
+	private Thread mWorker;
+	private long mDroppedCount = 0;
+	private long mBatchWindow = 0;
+	private int mBatchBytesMax = 0;
+
+	// Worker state, message taken from the queue which did not fit in the last batch
+	private ACASMessage mCarryOver;
+	private final ArrayList<ACASMessage> mBatch = new ArrayList<ACASMessage>();
+
+	// Parked messages granted by their destination, sent before the queue
+	private final LinkedList<ACASMessage> mReleased = new LinkedList<ACASMessage>();
+
+	ACASSendPipeline(ACASCommunication communication, int capacity, ACASQueuePolicy policy, int flowWindow) {
+		mCommunication = communication;
+		mCapacity = capacity;
+		mPolicy = policy;
+		mFlowControl = new ACASFlowControl(flowWindow);
+	}
+
+	/**
+	 * Set the flow control window
+	 *
+	 * @param window
+	 *            The number of messages in flight to one destination, 0 for disable the flow control
+	 */
+	void setFlowWindow(int window) {
+		synchronized (mQueue) {
+			mFlowControl.setWindowSize(window, mReleased);
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Apply a credit grant received from a destination
+	 *
+	 * @param grant
+	 */
+	void onGrant(ACASMessage grant) {
+		synchronized (mQueue) {
+			mFlowControl.onGrant(grant, mReleased);
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Give back the flow control credit of a message which could not be sent
+	 *
+	 * @param message
+	 */
+	void refund(ACASMessage message) {
+		synchronized (mQueue) {
+			mFlowControl.refund(message, mReleased);
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Enable the batching of queued messages
+	 *
+	 * @param window
+	 *            The time to wait for more messages in ms, 0 for disable batching
+	 * @param bytesMax
+	 *            The maximum payload size of one batch
+	 */
+	void setBatching(long window, int bytesMax) {
+		synchronized (mQueue) {
+			mBatchWindow = window;
+			mBatchBytesMax = bytesMax;
+			mQueue.notifyAll();
+		}
+	}
+
+	void setCapacity(int capacity) {
+		synchronized (mQueue) {
+			mCapacity = capacity;
+			mQueue.notifyAll();
+		}
+	}
+
+	void setPolicy(ACASQueuePolicy policy) {
+		synchronized (mQueue) {
+			mPolicy = policy;
+			mQueue.notifyAll();
+		}
+	}
+
+	long droppedCount() {
+		synchronized (mQueue) {
+			return mDroppedCount;
+		}
+	}
+
+	/**
+	 * Get the number of messages waiting to be sent, parked ones included
+	 */
+	int size() {
+		synchronized (mQueue) {
+			return mQueue.size() + mReleased.size() + mFlowControl.parkedCount();
+		}
+	}
+
+	int parkedCount() {
+		synchronized (mQueue) {
+			return mFlowControl.parkedCount();
+		}
+	}
+
+	/**
+	 * Queue a message following the full queue policy
+	 *
+	 * @param message
+	 * @throws ACASQueueFullException
+	 *             If the queue is full with the {@link ACASQueuePolicy#FAIL_FAST} policy, or
+	 *             with the {@link ACASQueuePolicy#DROP_OLDEST} policy when only flow control
+	 *             and granted messages are left
+	 */
+	void enqueue(ACASMessage message) {
+		synchronized (mQueue) {
+			while (isFull()) {
+				if (mPolicy == ACASQueuePolicy.FAIL_FAST) {
+					throw new ACASQueueFullException(EXCEPTION_QUEUE_FULL);
+				} else if (mPolicy == ACASQueuePolicy.DROP_OLDEST) {
+					// Never a flow control message, then a parked one, never wait
+					ACASMessage dropped = mQueue.removeLeastUrgent(ACASFlowControl.TAG_CONTROL);
+					if (dropped == null) {
+						dropped = mFlowControl.removeParked();
+					}
+					if (dropped == null) {
+						throw new ACASQueueFullException(EXCEPTION_QUEUE_FULL);
+					}
+					ACASTrace.event(ACASTrace.DROP, dropped.mId, dropped.mIdReceiver);
+					mDroppedCount++;
+					if (ACASLog.isLoggable(ACASLog.WARN)) {
+						ACASLog.w(TAG, "Send queue full, drop message tag={}", dropped.mId);
+					}
+					mCommunication.releaseDurable(dropped);
+					if (dropped.mSendFuture != null) {
+						dropped.mSendFuture.fail(new ACASQueueFullException(EXCEPTION_QUEUE_FULL));
+					}
+				} else {
+					try {
+						mQueue.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new ACASQueueFullException(EXCEPTION_QUEUE_FULL);
+					}
+				}
+			}
+			mQueue.addLast(message);
+			startWorker();
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Queue a message only if there is room, without waiting nor dropping another message
+	 *
+	 * @param message
+	 * @return false if the queue is full
+	 */
+	boolean offer(ACASMessage message) {
+		synchronized (mQueue) {
+			if (isFull()) {
+				return false;
+			}
+			mQueue.addLast(message);
+			startWorker();
+			mQueue.notifyAll();
+			return true;
+		}
+	}
+
+	/**
+	 * Must be called under mQueue
+	 */
+	private boolean isFull() {
+		return mQueue.size() + mReleased.size() + mFlowControl.parkedCount() >= mCapacity;
+	}
+
+	/**
+	 * Remove all the messages waiting to be sent, queued, parked or granted, the flow
+	 * control messages are kept
+	 *
+	 * @return the removed messages
+	 */
+	ArrayList<ACASMessage> clear() {
+		final ArrayList<ACASMessage> removed = new ArrayList<ACASMessage>();
+		synchronized (mQueue) {
+			for (Iterator<ACASMessage> itr = mQueue.iterator(); itr.hasNext();) {
+				final ACASMessage message = itr.next();
+				if (message.mId != ACASFlowControl.TAG_CONTROL) {
+					itr.remove();
+					removed.add(message);
+				}
+			}
+			// Parked first, the refunds have nothing left to release
+			mFlowControl.clearParked(removed);
+			final ArrayList<ACASMessage> released = new ArrayList<ACASMessage>(mReleased);
+			mReleased.clear();
+			for (ACASMessage message : released) {
+				mFlowControl.refund(message, mReleased);
+			}
+			removed.addAll(released);
+			mQueue.notifyAll();
+		}
+		return removed;
+	}
+
+	/**
+	 * Queue a flow control message, it is never refused nor parked
+	 *
+	 * @param message
+	 */
+	void enqueueControl(ACASMessage message) {
+		synchronized (mQueue) {
+			mQueue.addLast(message);
+			startWorker();
+			mQueue.notifyAll();
+		}
+	}
+
+	private void startWorker() {
+		if (mWorker == null) {
+			mWorker = new Thread(this, WORKER_NAME);
+			mWorker.setDaemon(true);
+			mWorker.start();
+		}
+	}
+
+	/**
+	 * Wake up the worker, use it when the key becomes valid
+	 */
+	void wakeUp() {
+		synchronized (mQueue) {
+			mQueue.notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		try {
+			while (true) {
+				final ACASMessage message = mCarryOver != null ? mCarryOver : take();
+				mCarryOver = null;
+				try {
+					if (mCommunication.deferIfUnreachable(message)) {
+						continue;
+					}
+					final long window;
+					final int bytesMax;
+					synchronized (mQueue) {
+						window = mBatchWindow;
+						bytesMax = mBatchBytesMax;
+					}
+					if (window <= 0 || message.mPriority == ACASPriority.HIGH) {
+						transmit(message);
+					} else {
+						fillBatch(message, window, bytesMax);
+						transmitBatch();
+					}
+				} catch (RuntimeException e) {
+					// The worker must survive, only the messages in hand fail
+					if (ACASLog.isLoggable(ACASLog.ERROR)) {
+						ACASLog.e(TAG, "Unable to send message tag=" + message.mId, e);
+					}
+					if (!mBatch.contains(message)) {
+						fail(message, e);
+					}
+					for (ACASMessage batched : mBatch) {
+						fail(batched, e);
+					}
+					mBatch.clear();
+				}
+			}
+		} catch (InterruptedException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Sender worker interrupted");
+			}
+			synchronized (mQueue) {
+				mWorker = null;
+			}
+		}
+	}
+
+	/**
+	 * Wait for the next message to send
+	 */
+	private ACASMessage take() throws InterruptedException {
+		synchronized (mQueue) {
+			while (true) {
+				if (ACAS.mSecurity.mIsValid) {
+					final ACASMessage message = nextReady();
+					if (message != null) {
+						mQueue.notifyAll();
+						return message;
+					}
+				}
+				// Wake up for probing the blocked destinations
+				final long delay = mFlowControl.nextProbeDelay(System.currentTimeMillis());
+				if (delay < 0) {
+					mQueue.wait();
+				} else {
+					mQueue.wait(Math.max(1, delay));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the next message if one arrives before the deadline
+	 */
+	private ACASMessage poll(long deadline) throws InterruptedException {
+		synchronized (mQueue) {
+			long remaining = deadline - System.currentTimeMillis();
+			while (true) {
+				final ACASMessage message = nextReady();
+				if (message != null) {
+					mQueue.notifyAll();
+					return message;
+				}
+				if (remaining <= 0) {
+					return null;
+				}
+				mQueue.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Get the next message which can be sent now, the messages without credit are parked,
+	 * called with the queue lock
+	 */
+	private ACASMessage nextReady() {
+		if (!mReleased.isEmpty()) {
+			return mReleased.removeFirst();
+		}
+		final ACASMessage probe = mFlowControl.nextProbe(System.currentTimeMillis());
+		if (probe != null) {
+			return probe;
+		}
+		while (!mQueue.isEmpty()) {
+			final ACASMessage message = mQueue.removeFirst();
+			if (mFlowControl.acquire(message)) {
+				return message;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Collect messages until the window is over or the batch is full, the payload
+	 * sizes are computed out of the queue lock
+	 */
+	private void fillBatch(ACASMessage first, long window, int bytesMax) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + window;
+		mBatch.clear();
+		mBatch.add(first);
+		int bytes = first.getPayloadSize();
+		while (bytes < bytesMax) {
+			final ACASMessage next = poll(deadline);
+			if (next == null) {
+				break;
+			}
+			if (mCommunication.deferIfUnreachable(next)) {
+				continue;
+			}
+			if (next.mPriority == ACASPriority.HIGH) {
+				// Send the batch now, the urgent message goes right after
+				mCarryOver = next;
+				break;
+			}
+			final int size = next.getPayloadSize();
+			if (bytes + size > bytesMax) {
+				mCarryOver = next;
+				break;
+			}
+			mBatch.add(next);
+			bytes += size;
+		}
+	}
+
+	private void transmit(ACASMessage message) {
+		try {
+			mCommunication.transmit(message);
+			recordSent(message);
+			mCommunication.releaseDurable(message);
+			if (message.mSendFuture != null) {
+				message.mSendFuture.set(message);
+			}
+		} catch (RuntimeException e) {
+			if (ACASLog.isLoggable(ACASLog.ERROR)) {
+				ACASLog.e(TAG, "Unable to send message tag="+ message.mId, e);
+			}
+			fail(message, e);
+		}
+	}
+
+	private void fail(ACASMessage message, RuntimeException e) {
+		refund(message);
+		if (message.mSendFuture != null) {
+			message.mSendFuture.fail(e);
+		}
+	}
+
+	private void recordSent(ACASMessage message) {
+		ACASTrace.event(ACASTrace.TRANSMIT, message.mId, message.mIdReceiver);
+		if (message.mSendTime != 0) {
+			ACASCommunication.sMetrics.record(ACASLatencyKind.SEND, message, message.mIdReceiver, System.nanoTime() - message.mSendTime);
+		}
+	}
+
+	private void transmitBatch() {
+		if (mBatch.size() == 1) {
+			transmit(mBatch.get(0));
+			mBatch.clear();
+			return;
+		}
+		try {
+			mCommunication.transmitBatch(mBatch);
+			for (ACASMessage message : mBatch) {
+				recordSent(message);
+				mCommunication.releaseDurable(message);
+				if (message.mSendFuture != null) {
+					message.mSendFuture.set(message);
+				}
+			}
+		} catch (RuntimeException e) {
+			if (ACASLog.isLoggable(ACASLog.ERROR)) {
+				ACASLog.e(TAG, "Unable to send batch of "+ mBatch.size() +" messages", e);
+			}
+			for (ACASMessage message : mBatch) {
+				fail(message, e);
+			}
+		}
+		mBatch.clear();
+	}
+}
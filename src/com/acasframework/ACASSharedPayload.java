@@ -0,0 +1,245 @@
+package com.acasframework;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Large message payload shared through a memory-mapped file.</p>
+ * <p>The sender writes the payload once into a file with a small header holding a
+ * reference count, one per recipient process, and only the file name travels in the
+ * message. Each recipient maps the data without copying it and releases its
+ * reference when done, the last one deletes the file. Files left by dead processes
+ * are swept after a time to live.</p>
+ * <p>The header is updated under a file lock so that several processes can share it,
+ * only java.nio is used so it works on any Linux JVM.</p>
+ */
+class ACASSharedPayload {
+
+	static final String TAG = ACASSharedPayload.class.getSimpleName();
+
+	static final String FILE_PREFIX = "acas-";
+	static final String FILE_SUFFIX = ".shm";
+
+	static final int MAGIC = 0x41434153;
+	static final int HEADER_SIZE = 16;
+	static final int OFFSET_REFCOUNT = 4;
+	static final int OFFSET_LENGTH = 8;
+
+	// Unique file names per process without depending on the platform process id
+	private static final String sProcessToken = Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+	private static final AtomicLong sNextId = new AtomicLong();
+
+	final File mFile;
+	final MappedByteBuffer mData;
+	// One reference for the message itself, plus one per listener it is queued to
+	private final AtomicInteger mLocalRefs = new AtomicInteger(1);
+	private final AtomicBoolean mMessageReleased = new AtomicBoolean(false);
+
+	private ACASSharedPayload(File file, MappedByteBuffer data) {
+		mFile = file;
+		mData = data;
+	}
+
+	/**
+	 * Write a payload into a new shared file
+	 *
+	 * @param directory
+	 *            A directory readable by all the recipients
+	 * @param payload
+	 *            The data, its position is not changed
+	 * @param recipients
+	 *            The number of recipient processes which will release the file
+	 * @return the shared file
+	 * @throws IOException
+	 */
+	static File write(File directory, ByteBuffer payload, int recipients) throws IOException {
+		final File file = new File(directory, FILE_PREFIX + sProcessToken + "-" + sNextId.incrementAndGet() + FILE_SUFFIX);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final int length = payload.remaining();
+			final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + length);
+			map.putInt(0, MAGIC);
+			map.putInt(OFFSET_REFCOUNT, recipients);
+			map.putLong(OFFSET_LENGTH, length);
+			map.position(HEADER_SIZE);
+			map.put(payload.duplicate());
+		} finally {
+			raf.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Resolve the shared file named by a received message. Any application can send this
+	 * name, so only the payload files directly in the shared directory are accepted.
+	 *
+	 * @param directory
+	 *            The shared payload directory, or null if none is set
+	 * @param path
+	 *            The received path
+	 * @return the canonical file
+	 * @throws IOException
+	 *             If the file is not a payload file of the shared directory
+	 */
+	static File resolve(File directory, String path) throws IOException {
+		if (directory == null) {
+			throw new IOException("No shared payload directory for " + path);
+		}
+		final File file = new File(path).getCanonicalFile();
+		final String name = file.getName();
+		if (!directory.getCanonicalFile().equals(file.getParentFile()) || !name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+			throw new IOException("Not a shared payload of " + directory + ": " + path);
+		}
+		return file;
+	}
+
+	/**
+	 * Map a shared payload read only, without copying it
+	 *
+	 * @param file
+	 *            A file checked by {@link #resolve(File, String)}
+	 * @return the mapping
+	 * @throws IOException
+	 *             If the file is missing or is not a shared payload
+	 */
+	static ACASSharedPayload map(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a shared payload: " + file);
+			}
+			final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			final long length = header.getLong(OFFSET_LENGTH);
+			if (header.getInt(0) != MAGIC || length < 0 || length > channel.size() - HEADER_SIZE) {
+				throw new IOException("Not a shared payload: " + file);
+			}
+			final MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, length);
+			return new ACASSharedPayload(file, data);
+		} finally {
+			// The mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Take one more local reference on the mapping, none once the file is released
+	 */
+	void retain() {
+		while (true) {
+			final int refs = mLocalRefs.get();
+			if (refs == 0 || mLocalRefs.compareAndSet(refs, refs + 1)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Release the reference of the message itself, at most once
+	 */
+	void releaseMessage() {
+		if (mMessageReleased.compareAndSet(false, true)) {
+			release();
+		}
+	}
+
+	/**
+	 * Release one local reference, the last one releases the reference of this process on the file
+	 */
+	void release() {
+		while (true) {
+			final int refs = mLocalRefs.get();
+			if (refs == 0) {
+				return;
+			}
+			if (mLocalRefs.compareAndSet(refs, refs - 1)) {
+				if (refs != 1) {
+					return;
+				}
+				break;
+			}
+		}
+		try {
+			if (releaseFile(mFile) && ACASLog.isLoggable(ACASLog.DEBUG)) {
+				ACASLog.d(TAG, "Shared payload deleted {}", mFile.getName());
+			}
+		} catch (IOException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Unable to release shared payload {}: {}", mFile.getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * Decrement the reference count of a shared file, delete it at zero
+	 *
+	 * @param file
+	 * @return true if the file has been deleted
+	 * @throws IOException
+	 *             If the file is not a shared payload, it is left untouched
+	 */
+	static boolean releaseFile(File file) throws IOException {
+		// Opening read write would create a missing file
+		if (!file.isFile()) {
+			throw new IOException("Missing shared payload: " + file);
+		}
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a shared payload: " + file);
+			}
+			final FileLock lock = channel.lock(0, HEADER_SIZE, false);
+			try {
+				final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				if (header.getInt(0) != MAGIC) {
+					throw new IOException("Not a shared payload: " + file);
+				}
+				final int refs = header.getInt(OFFSET_REFCOUNT) - 1;
+				header.putInt(OFFSET_REFCOUNT, refs);
+				if (refs > 0) {
+					return false;
+				}
+				return file.delete();
+			} finally {
+				lock.release();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Delete the shared files older than the time to live, left by crashed processes
+	 *
+	 * @param directory
+	 * @param ttl
+	 *            The time to live in ms
+	 * @return the number of deleted files
+	 */
+	static int sweep(File directory, long ttl) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		final long limit = System.currentTimeMillis() - ttl;
+		int deleted = 0;
+		for (File file : files) {
+			final String name = file.getName();
+			if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) && file.lastModified() < limit && file.delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+}
@@ -0,0 +1,25 @@
+package com.acasframework;
+
+/**
+ * <p>Action taken on a listener whose callback runs over the listener budget.</p>
+ * 
+ * @see {@link com.acasframework.ACAS#setListenerBudget(long, ACASSlowListenerPolicy)}
+ */
+public enum ACASSlowListenerPolicy {
+	/**
+	 * Only report the listener
+	 */
+	REPORT,
+	/**
+	 * Move a {@link ACASDispatchMode#BACKGROUND} listener to its own thread so that it
+	 * no more holds the shared pool. The {@link ACASDispatchMode#MAIN} and
+	 * {@link ACASDispatchMode#SERIAL} listeners cannot be moved, they are handled as
+	 * {@link #SKIP}, and an already isolated listener is only reported
+	 */
+	ISOLATE,
+	/**
+	 * Drop the messages of the listener during the quarantine time, its queued messages
+	 * included
+	 */
+	SKIP
+}
@@ -0,0 +1,188 @@
+package com.acasframework;
+
+/**
+ * <p>Immutable snapshot of the message bus and module sync metrics.</p>
+ * <p>Counts are since the start of the process, or since the last reset for the sent
+ * and received counts. Latencies are in microseconds.</p>
+ */
+public final class ACASStats {
+
+	static final String TAG = ACASStats.class.getSimpleName();
+
+	final long mTimestamp;
+	final long mSentCount;
+	final long mReceivedCount;
+	final int mSendQueueDepth;
+	final int mParkedCount;
+	final long mSendDroppedCount;
+	final int mListenerCount;
+	final int mListenerQueueDepth;
+	final long mListenerDroppedCount;
+	final long mSlowListenerCount;
+	final int mQuarantinedCount;
+	final int mStoredCount;
+	final int mUndeliveredCount;
+	final long mEvictedCount;
+	final long mDuplicateCount;
+	final ACASLatency mSendLatency;
+	final ACASLatency mDispatchLatency;
+	final ACASLatency mCallbackLatency;
+	final ACASLatency mModuleSyncLatency;
+	final long mLastModuleSync;
+	final int mModuleCount;
+
+	ACASStats(long timestamp, long sentCount, long receivedCount, int sendQueueDepth, int parkedCount, long sendDroppedCount,
+			int listenerCount, int listenerQueueDepth, long listenerDroppedCount, long slowListenerCount, int quarantinedCount, int storedCount, int undeliveredCount,
+			long evictedCount, long duplicateCount, ACASLatency sendLatency, ACASLatency dispatchLatency,
+			ACASLatency callbackLatency, ACASLatency moduleSyncLatency, long lastModuleSync, int moduleCount) {
+		mTimestamp = timestamp;
+		mSentCount = sentCount;
+		mReceivedCount = receivedCount;
+		mSendQueueDepth = sendQueueDepth;
+		mParkedCount = parkedCount;
+		mSendDroppedCount = sendDroppedCount;
+		mListenerCount = listenerCount;
+		mListenerQueueDepth = listenerQueueDepth;
+		mListenerDroppedCount = listenerDroppedCount;
+		mSlowListenerCount = slowListenerCount;
+		mQuarantinedCount = quarantinedCount;
+		mStoredCount = storedCount;
+		mUndeliveredCount = undeliveredCount;
+		mEvictedCount = evictedCount;
+		mDuplicateCount = duplicateCount;
+		mSendLatency = sendLatency;
+		mDispatchLatency = dispatchLatency;
+		mCallbackLatency = callbackLatency;
+		mModuleSyncLatency = moduleSyncLatency;
+		mLastModuleSync = lastModuleSync;
+		mModuleCount = moduleCount;
+	}
+
+	/**
+	 * Get the time of the snapshot
+	 * @return the time in ms since the epoch
+	 */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	public long getSentCount() {
+		return mSentCount;
+	}
+
+	public long getReceivedCount() {
+		return mReceivedCount;
+	}
+
+	/**
+	 * Get the number of messages waiting to be sent, parked ones included
+	 * @return
+	 */
+	public int getSendQueueDepth() {
+		return mSendQueueDepth;
+	}
+
+	/**
+	 * Get the number of messages waiting for a flow control credit
+	 * @return
+	 */
+	public int getParkedCount() {
+		return mParkedCount;
+	}
+
+	public long getSendDroppedCount() {
+		return mSendDroppedCount;
+	}
+
+	public int getListenerCount() {
+		return mListenerCount;
+	}
+
+	/**
+	 * Get the number of messages waiting in all the listener queues
+	 * @return
+	 */
+	public int getListenerQueueDepth() {
+		return mListenerQueueDepth;
+	}
+
+	public long getListenerDroppedCount() {
+		return mListenerDroppedCount;
+	}
+
+	/**
+	 * Get the number of times a listener went over the listener budget
+	 * @return
+	 */
+	public long getSlowListenerCount() {
+		return mSlowListenerCount;
+	}
+
+	/**
+	 * Get the number of listeners whose messages are skipped
+	 * @return
+	 */
+	public int getQuarantinedCount() {
+		return mQuarantinedCount;
+	}
+
+	/**
+	 * Get the number of messages in the received history
+	 * @return
+	 */
+	public int getStoredCount() {
+		return mStoredCount;
+	}
+
+	/**
+	 * Get the number of received messages not yet delivered to any listener
+	 * @return
+	 */
+	public int getUndeliveredCount() {
+		return mUndeliveredCount;
+	}
+
+	public long getEvictedCount() {
+		return mEvictedCount;
+	}
+
+	public long getDuplicateCount() {
+		return mDuplicateCount;
+	}
+
+	public ACASLatency getSendLatency() {
+		return mSendLatency;
+	}
+
+	/**
+	 * Get the lag between the reception of a message and the call of a listener
+	 * @return
+	 */
+	public ACASLatency getDispatchLatency() {
+		return mDispatchLatency;
+	}
+
+	public ACASLatency getCallbackLatency() {
+		return mCallbackLatency;
+	}
+
+	/**
+	 * Get the duration of the module list downloads
+	 * @return
+	 */
+	public ACASLatency getModuleSyncLatency() {
+		return mModuleSyncLatency;
+	}
+
+	/**
+	 * Get the end time of the last module list download
+	 * @return the time in ms since the epoch, 0 if none
+	 */
+	public long getLastModuleSync() {
+		return mLastModuleSync;
+	}
+
+	public int getModuleCount() {
+		return mModuleCount;
+	}
+}
@@ -0,0 +1,20 @@
+package com.acasframework;
+
+import java.io.IOException;
+
+/**
+ * <p>Receive the metrics snapshots taken on the export schedule.</p>
+ * 
+ * @see {@link com.acasframework.ACAS#startStatsExport(ACASStatsExporter, long)}
+ */
+public interface ACASStatsExporter {
+
+	/**
+	 * Called on the export thread for each snapshot
+	 * 
+	 * @param stats
+	 * @throws IOException
+	 *             The error is logged and the next snapshot is still exported
+	 */
+	public void export(ACASStats stats) throws IOException;
+}
@@ -0,0 +1,111 @@
+package com.acasframework;
+
+import java.util.Locale;
+
+/**
+ * <p>Text format of the exported {@link ACASStats}.</p>
+ */
+public enum ACASStatsFormat {
+	/**
+	 * Prometheus text exposition format, one whole snapshot per export
+	 */
+	PROMETHEUS {
+		@Override
+		void format(ACASStats stats, StringBuilder out) {
+			gauge(out, "acas_messages_sent_total", "counter", stats.mSentCount);
+			gauge(out, "acas_messages_received_total", "counter", stats.mReceivedCount);
+			gauge(out, "acas_send_queue_depth", "gauge", stats.mSendQueueDepth);
+			gauge(out, "acas_send_parked", "gauge", stats.mParkedCount);
+			gauge(out, "acas_send_dropped_total", "counter", stats.mSendDroppedCount);
+			gauge(out, "acas_listeners", "gauge", stats.mListenerCount);
+			gauge(out, "acas_listener_queue_depth", "gauge", stats.mListenerQueueDepth);
+			gauge(out, "acas_listener_dropped_total", "counter", stats.mListenerDroppedCount);
+			gauge(out, "acas_listener_slow_total", "counter", stats.mSlowListenerCount);
+			gauge(out, "acas_listener_quarantined", "gauge", stats.mQuarantinedCount);
+			gauge(out, "acas_received_stored", "gauge", stats.mStoredCount);
+			gauge(out, "acas_received_undelivered", "gauge", stats.mUndeliveredCount);
+			gauge(out, "acas_received_evicted_total", "counter", stats.mEvictedCount);
+			gauge(out, "acas_received_duplicate_total", "counter", stats.mDuplicateCount);
+			gauge(out, "acas_modules", "gauge", stats.mModuleCount);
+			gauge(out, "acas_module_sync_last_timestamp_seconds", "gauge", stats.mLastModuleSync / 1000);
+			summary(out, "acas_send_latency_seconds", stats.mSendLatency);
+			summary(out, "acas_dispatch_latency_seconds", stats.mDispatchLatency);
+			summary(out, "acas_callback_latency_seconds", stats.mCallbackLatency);
+			summary(out, "acas_module_sync_seconds", stats.mModuleSyncLatency);
+		}
+
+		private void gauge(StringBuilder out, String name, String type, long value) {
+			out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+			out.append(name).append(' ').append(value).append('\n');
+		}
+
+		private void summary(StringBuilder out, String name, ACASLatency latency) {
+			out.append("# TYPE ").append(name).append(" summary\n");
+			for (double quantile : QUANTILES) {
+				out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+					.append(seconds(latency.getValueAtPercentile(quantile * 100))).append('\n');
+			}
+			out.append(name).append("_sum ").append(seconds(latency.sum())).append('\n');
+			out.append(name).append("_count ").append(latency.getCount()).append('\n');
+		}
+	},
+	/**
+	 * One JSON object per line, appended at each export
+	 */
+	JSON_LINES {
+		@Override
+		void format(ACASStats stats, StringBuilder out) {
+			out.append("{\"timestamp\":").append(stats.mTimestamp);
+			field(out, "sent", stats.mSentCount);
+			field(out, "received", stats.mReceivedCount);
+			field(out, "sendQueueDepth", stats.mSendQueueDepth);
+			field(out, "parked", stats.mParkedCount);
+			field(out, "sendDropped", stats.mSendDroppedCount);
+			field(out, "listeners", stats.mListenerCount);
+			field(out, "listenerQueueDepth", stats.mListenerQueueDepth);
+			field(out, "listenerDropped", stats.mListenerDroppedCount);
+			field(out, "slowListeners", stats.mSlowListenerCount);
+			field(out, "quarantined", stats.mQuarantinedCount);
+			field(out, "stored", stats.mStoredCount);
+			field(out, "undelivered", stats.mUndeliveredCount);
+			field(out, "evicted", stats.mEvictedCount);
+			field(out, "duplicates", stats.mDuplicateCount);
+			field(out, "modules", stats.mModuleCount);
+			field(out, "lastModuleSync", stats.mLastModuleSync);
+			latency(out, "sendLatency", stats.mSendLatency);
+			latency(out, "dispatchLatency", stats.mDispatchLatency);
+			latency(out, "callbackLatency", stats.mCallbackLatency);
+			latency(out, "moduleSync", stats.mModuleSyncLatency);
+			out.append("}\n");
+		}
+
+		private void field(StringBuilder out, String name, long value) {
+			out.append(",\"").append(name).append("\":").append(value);
+		}
+
+		private void latency(StringBuilder out, String name, ACASLatency latency) {
+			out.append(",\"").append(name).append("\":{\"count\":").append(latency.getCount())
+				.append(",\"mean\":").append(String.format(Locale.US, "%.1f", Double.valueOf(latency.getMean())))
+				.append(",\"p50\":").append(latency.getValueAtPercentile(50))
+				.append(",\"p90\":").append(latency.getValueAtPercentile(90))
+				.append(",\"p99\":").append(latency.getValueAtPercentile(99))
+				.append(",\"max\":").append(latency.getMax()).append('}');
+		}
+	};
+
+	static final String TAG = ACASStatsFormat.class.getSimpleName();
+
+	static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * Append one snapshot
+	 *
+	 * @param stats
+	 * @param out
+	 */
+	abstract void format(ACASStats stats, StringBuilder out);
+
+	static String seconds(long micros) {
+		return String.format(Locale.US, "%.6f", Double.valueOf(micros / 1e6));
+	}
+}
@@ -0,0 +1,152 @@
+package com.acasframework;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+
+/**
+ * <p>Export the metrics snapshots on a fixed schedule, from one background thread.</p>
+ * <p>Taking a snapshot briefly locks the queues and copies the histograms, the
+ * recording side is never slowed down by the export.</p>
+ */
+class ACASStatsReporter implements Runnable {
+
+	static final String TAG = ACASStatsReporter.class.getSimpleName();
+
+	static final String THREAD_NAME = "ACAS-stats-";
+	static final String CHARSET = "UTF-8";
+
+	/**
+	 * Write the snapshots to a file, a Prometheus snapshot replaces the file so that it
+	 * can be read by a text file collector, JSON lines are appended
+	 */
+	static final class FileExporter implements ACASStatsExporter {
+		private final ACASStatsFormat mFormat;
+		private final File mFile;
+		private final StringBuilder mText = new StringBuilder();
+
+		FileExporter(ACASStatsFormat format, File file) {
+			mFormat = format;
+			mFile = file;
+		}
+
+		@Override
+		public void export(ACASStats stats) throws IOException {
+			mText.setLength(0);
+			mFormat.format(stats, mText);
+			final boolean append = mFormat == ACASStatsFormat.JSON_LINES;
+			final File target = append ? mFile : new File(mFile.getPath() + ".tmp");
+			final OutputStream out = new FileOutputStream(target, append);
+			try {
+				out.write(mText.toString().getBytes(CHARSET));
+			} finally {
+				out.close();
+			}
+			if (!append && !target.renameTo(mFile)) {
+				throw new IOException("Unable to replace "+ mFile);
+			}
+		}
+	}
+
+	/**
+	 * Write the snapshots to a local socket, connected again after an error
+	 */
+	static final class SocketExporter implements ACASStatsExporter {
+		private final ACASStatsFormat mFormat;
+		private final String mName;
+		private final StringBuilder mText = new StringBuilder();
+		private LocalSocket mSocket;
+
+		SocketExporter(ACASStatsFormat format, String name) {
+			mFormat = format;
+			mName = name;
+		}
+
+		@Override
+		public void export(ACASStats stats) throws IOException {
+			mText.setLength(0);
+			mFormat.format(stats, mText);
+			try {
+				if (mSocket == null) {
+					mSocket = new LocalSocket();
+					mSocket.connect(new LocalSocketAddress(mName));
+				}
+				final OutputStream out = mSocket.getOutputStream();
+				out.write(mText.toString().getBytes(CHARSET));
+				out.flush();
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		void close() {
+			if (mSocket != null) {
+				try {
+					mSocket.close();
+				} catch (IOException e) {
+					// Nothing more to do
+				}
+				mSocket = null;
+			}
+		}
+	}
+
+	private final ACASStatsExporter mExporter;
+	private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor(new ACASDispatcher.NamedThreadFactory(THREAD_NAME));
+
+	/**
+	 * Start the export
+	 *
+	 * @param exporter
+	 * @param period
+	 *            The time between two snapshots in ms
+	 */
+	ACASStatsReporter(ACASStatsExporter exporter, long period) {
+		mExporter = exporter;
+		mScheduler.scheduleAtFixedRate(this, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the export, a running export is completed
+	 */
+	void stop() {
+		if (mExporter instanceof SocketExporter) {
+			// Queued behind a running export
+			mScheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					((SocketExporter) mExporter).close();
+				}
+			});
+		}
+		mScheduler.shutdown();
+	}
+
+	@Override
+	public void run() {
+		final ACASCommunication communication = ACAS.mCommunication;
+		if (communication == null) {
+			return;
+		}
+		try {
+			mExporter.export(communication.snapshotStats());
+		} catch (IOException e) {
+			if (ACASLog.isLoggable(ACASLog.WARN)) {
+				ACASLog.w(TAG, "Unable to export the stats: {}", e);
+			}
+		} catch (RuntimeException e) {
+			// A failure must not cancel the next exports
+			if (ACASLog.isLoggable(ACASLog.ERROR)) {
+				ACASLog.e(TAG, "Stats exporter failed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,506 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.Looper;
+
+/**
+ * <p>One registered message listener with its own bounded queue.</p>
+ * <p>Messages are queued in arrival order and drained by one task at a time on the
+ * executor of the listener, so the listener keeps its ordering even on a shared pool.
+ * The queue has one lane per {@link ACASPriority}, the order is kept inside each lane.</p>
+ * <p>The callback time is measured against the listener budget, a callback still
+ * running over the budget is also caught when the next message is queued.</p>
+ * <p>The bus is told when the listener returns from a message or when the message is
+ * dropped from the queue, never under the queue lock.</p>
+ */
+class ACASSubscriber implements Runnable {
+
+	static final String TAG = ACASSubscriber.class.getSimpleName();
+
+	// Number of messages delivered before giving back the executor thread
+	static final int DRAIN_BATCH = 32;
+
+	static final String ISOLATED_THREAD_NAME = "ACAS-isolated-";
+
+	private final ACASCommunication mCommunication;
+	final ACASOnMessageReceivedListener mListener;
+	final ACASDispatchMode mMode;
+
+	// Subscription filter, all tags from all senders by default
+	long mTagMin = Long.MIN_VALUE;
+	long mTagMax = Long.MAX_VALUE;
+	String mIdSender;
+	// Segments of the topic filter, null for the messages of all topics
+	String[] mTopicFilter;
+
+	final ACASHistogram mCallbackLatency = new ACASHistogram();
+
+	// Guarded by mQueue, the executor changes when the listener is isolated
+	private Executor mExecutor;
+	private boolean mOwnExecutor;
+	private final ACASLaneQueue mQueue = new ACASLaneQueue();
+	private final int mCapacity;
+	private final ACASQueuePolicy mPolicy;
+	private boolean mScheduled = false;
+	private boolean mClosed = false;
+	private long mDroppedCount = 0;
+
+	// Delivery cursor, the stored messages up to mCursor were handed as the backlog
+	// at registration and are refused from the live delivery
+	private long mCursor = -1;
+	// Set during the registration, the live messages are queued but not dispatched
+	private boolean mHeld = false;
+
+	// Slow listener state, written under mQueue
+	private volatile long mCallbackStart = 0;
+	private volatile boolean mSlow = false;
+	private long mSlowCount = 0;
+	private long mQuarantineEnd = 0;
+
+	ACASSubscriber(ACASCommunication communication, ACASOnMessageReceivedListener listener, ACASDispatchMode mode, Executor executor, boolean ownExecutor, int capacity, ACASQueuePolicy policy) {
+		mCommunication = communication;
+		mListener = listener;
+		mMode = mode;
+		mExecutor = executor;
+		mOwnExecutor = ownExecutor;
+		mCapacity = capacity;
+		mPolicy = policy;
+	}
+
+	/**
+	 * Restrict this subscription to a tag range
+	 *
+	 * @param tagMin
+	 * @param tagMax
+	 * @return this subscriber
+	 */
+	ACASSubscriber filterTag(long tagMin, long tagMax) {
+		mTagMin = tagMin;
+		mTagMax = tagMax;
+		return this;
+	}
+
+	/**
+	 * Restrict this subscription to one sender
+	 *
+	 * @param idSender
+	 * @return this subscriber
+	 */
+	ACASSubscriber filterSender(String idSender) {
+		mIdSender = idSender;
+		return this;
+	}
+
+	/**
+	 * Restrict this subscription to the topics matching a filter, the messages
+	 * without topic are refused
+	 *
+	 * @param topicFilter
+	 *            The segments of the filter
+	 * @return this subscriber
+	 */
+	ACASSubscriber filterTopic(String[] topicFilter) {
+		mTopicFilter = topicFilter;
+		return this;
+	}
+
+	/**
+	 * Check the subscription filter
+	 *
+	 * @param message
+	 * @return true if this listener wants the message
+	 */
+	boolean matches(ACASMessage message) {
+		if (message.mId < mTagMin || message.mId > mTagMax) {
+			return false;
+		}
+		if (mTopicFilter != null) {
+			final String[] topic = message.topicSegments();
+			if (topic == null || !ACASTopicTrie.matches(mTopicFilter, topic)) {
+				return false;
+			}
+		}
+		return mIdSender == null || mIdSender.equals(message.mIdSender);
+	}
+
+	/**
+	 * Queue a message for this listener following the overflow policy, with the
+	 * {@link ACASQueuePolicy#FAIL_FAST} policy the new message is refused
+	 *
+	 * <p>The main thread, where the receiver runs, never waits: with the
+	 * {@link ACASQueuePolicy#BLOCK} policy a {@link ACASDispatchMode#MAIN} listener gets
+	 * its oldest message delivered right away, the other listeners drop it.</p>
+	 *
+	 * <p>A replayed message never waits nor drops a queued one, it is refused when the
+	 * queue is full whatever the policy.</p>
+	 *
+	 * @param message
+	 * @param replay
+	 *            true if the message is replayed
+	 * @return true if the message has been queued
+	 */
+	boolean offer(ACASMessage message, boolean replay) {
+		checkRunningCallback();
+		final boolean mainThread = Looper.myLooper() == Looper.getMainLooper();
+		while (true) {
+			ACASMessage pending = null;
+			ACASMessage dropped = null;
+			synchronized (mQueue) {
+				if (mClosed) {
+					return false;
+				}
+				if (message.mSequence >= 0 && message.mSequence <= mCursor) {
+					return false;
+				}
+				if (mHeld) {
+					// Bounded when the backlog is queued
+					mQueue.addLast(message);
+					retainPayload(message);
+					return true;
+				}
+				if (mQuarantineEnd != 0) {
+					if (System.nanoTime() - mQuarantineEnd < 0) {
+						mDroppedCount++;
+						return false;
+					}
+					mQuarantineEnd = 0;
+					mSlow = false;
+				}
+				if (mQueue.size() < mCapacity) {
+					mQueue.addLast(message);
+					retainPayload(message);
+					if (!mScheduled) {
+						mScheduled = true;
+						mExecutor.execute(this);
+					}
+					return true;
+				}
+				if (replay) {
+					return false;
+				} else if (mPolicy == ACASQueuePolicy.FAIL_FAST) {
+					mDroppedCount++;
+					if (ACASLog.isLoggable(ACASLog.WARN)) {
+						ACASLog.w(TAG, "Listener queue full, refuse message tag={}", message.mId);
+					}
+					return false;
+				} else if (mPolicy == ACASQueuePolicy.DROP_OLDEST || (mainThread && mMode != ACASDispatchMode.MAIN)) {
+					dropped = mQueue.removeLeastUrgent();
+					ACASTrace.event(ACASTrace.DROP, dropped.mId, dropped.mIdSender);
+					mDroppedCount++;
+					if (ACASLog.isLoggable(ACASLog.WARN)) {
+						ACASLog.w(TAG, "Listener queue full, drop message tag={}", dropped.mId);
+					}
+				} else if (mainThread) {
+					// Waiting here would wait for ourselves, deliver the oldest message now
+					pending = mQueue.removeFirst();
+					mQueue.notifyAll();
+				} else {
+					try {
+						mQueue.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+					continue;
+				}
+			}
+			if (dropped != null) {
+				done(dropped, false);
+				continue;
+			}
+			// The listener is never called with the queue lock
+			try {
+				deliver(pending);
+			} catch (RuntimeException e) {
+				if (ACASLog.isLoggable(ACASLog.ERROR)) {
+					ACASLog.e(TAG, "Listener failed on message tag=" + pending.mId, e);
+				}
+			} finally {
+				done(pending, true);
+			}
+		}
+	}
+
+	/**
+	 * Call the listener and measure the dispatch lag and the callback time
+	 *
+	 * @param message
+	 */
+	private void deliver(ACASMessage message) {
+		final long start = System.nanoTime();
+		final ACASMetrics metrics = ACASCommunication.sMetrics;
+		if (message.mReceiveTime != 0) {
+			metrics.record(ACASLatencyKind.DISPATCH, message, message.mIdSender, start - message.mReceiveTime);
+		}
+		ACASTrace.event(ACASTrace.DISPATCH, message.mId, message.mIdSender);
+		mCallbackStart = start;
+		try {
+			mListener.onMessageReceived(message);
+		} finally {
+			mCallbackStart = 0;
+			final long elapsed = System.nanoTime() - start;
+			metrics.record(ACASLatencyKind.CALLBACK, message, message.mIdSender, elapsed);
+			mCallbackLatency.recordNanos(elapsed);
+			final long budget = ACASCommunication.sListenerBudget;
+			if (budget > 0) {
+				if (elapsed > budget * 1000000) {
+					onSlow(elapsed);
+				} else if (mSlow) {
+					mSlow = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Catch a callback which is still running over the budget
+	 */
+	private void checkRunningCallback() {
+		final long budget = ACASCommunication.sListenerBudget;
+		final long start = mCallbackStart;
+		if (budget > 0 && start != 0 && !mSlow) {
+			final long elapsed = System.nanoTime() - start;
+			if (elapsed > budget * 1000000) {
+				onSlow(elapsed);
+			}
+		}
+	}
+
+	/**
+	 * Apply the slow listener policy once for each slow period
+	 *
+	 * @param elapsed
+	 *            The callback time in ns
+	 */
+	private void onSlow(long elapsed) {
+		ACASSlowListenerPolicy policy = ACASCommunication.sSlowListenerPolicy;
+		ArrayList<ACASMessage> dropped = null;
+		synchronized (mQueue) {
+			if (mSlow || mClosed) {
+				return;
+			}
+			mSlow = true;
+			mSlowCount++;
+			if (policy == ACASSlowListenerPolicy.ISOLATE && mMode != ACASDispatchMode.BACKGROUND) {
+				// A main thread or serial listener has no thread of its own to move to
+				policy = ACASSlowListenerPolicy.SKIP;
+			}
+			if (policy == ACASSlowListenerPolicy.SKIP) {
+				mQuarantineEnd = System.nanoTime() + ACASCommunication.sListenerQuarantineTime * 1000000;
+				dropped = clearQueue();
+				mDroppedCount += dropped.size();
+				mQueue.notifyAll();
+			} else if (policy == ACASSlowListenerPolicy.ISOLATE && !isolate()) {
+				policy = ACASSlowListenerPolicy.REPORT;
+			}
+		}
+		done(dropped);
+		ACASTrace.event(ACASTrace.SLOW_LISTENER, elapsed / 1000000, null);
+		if (ACASLog.isLoggable(ACASLog.WARN)) {
+			ACASLog.w(TAG, "Listener {} slow, {} ms in callback, {}", mListener, elapsed / 1000000, policy);
+		}
+		final ACASOnSlowListener callback = ACASCommunication.sOnSlowListener;
+		if (callback != null) {
+			try {
+				callback.onSlowListener(mListener, elapsed / 1000000, policy);
+			} catch (RuntimeException e) {
+				if (ACASLog.isLoggable(ACASLog.ERROR)) {
+					ACASLog.e(TAG, "Slow listener callback failed", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move the listener from the shared pool to its own thread, must be called under mQueue
+	 *
+	 * @return true if the listener has been moved
+	 */
+	private boolean isolate() {
+		if (mMode != ACASDispatchMode.BACKGROUND || mOwnExecutor) {
+			return false;
+		}
+		// The running drain task ends on the pool, the next one starts on the new thread
+		mExecutor = Executors.newSingleThreadExecutor(new ACASDispatcher.NamedThreadFactory(ISOLATED_THREAD_NAME));
+		mOwnExecutor = true;
+		return true;
+	}
+
+	/**
+	 * Hold the live delivery until the backlog is queued
+	 *
+	 * @param cursor
+	 *            The last stored message handled by the backlog, the older ones are refused
+	 */
+	void hold(long cursor) {
+		synchronized (mQueue) {
+			mCursor = cursor;
+			mHeld = true;
+		}
+	}
+
+	/**
+	 * Queue the backlog ahead of the live messages held since the registration, then
+	 * start the delivery. The oldest messages are dropped above the queue capacity.
+	 *
+	 * @param backlog
+	 *            The stored messages in arrival order
+	 */
+	void release(ArrayList<ACASMessage> backlog) {
+		final ArrayList<ACASMessage> dropped = new ArrayList<ACASMessage>();
+		synchronized (mQueue) {
+			final ArrayList<ACASMessage> live = new ArrayList<ACASMessage>(mQueue);
+			mQueue.clear();
+			for (int i = 0; i < backlog.size(); i++) {
+				mQueue.addLast(backlog.get(i));
+				retainPayload(backlog.get(i));
+			}
+			for (int i = 0; i < live.size(); i++) {
+				mQueue.addLast(live.get(i));
+			}
+			while (mQueue.size() > mCapacity) {
+				final ACASMessage message = mQueue.removeLeastUrgent();
+				ACASTrace.event(ACASTrace.DROP, message.mId, message.mIdSender);
+				mDroppedCount++;
+				dropped.add(message);
+			}
+			mHeld = false;
+			if (!mClosed && !mQueue.isEmpty() && !mScheduled) {
+				mScheduled = true;
+				mExecutor.execute(this);
+			}
+		}
+		done(dropped);
+	}
+
+	/**
+	 * Drop all the queued messages, must be called under mQueue
+	 *
+	 * @return the dropped messages, to hand to {@link #done(ArrayList)} out of the lock
+	 */
+	private ArrayList<ACASMessage> clearQueue() {
+		final ArrayList<ACASMessage> dropped = new ArrayList<ACASMessage>(mQueue);
+		mQueue.clear();
+		return dropped;
+	}
+
+	/**
+	 * Release the payload of a message which left the queue and tell the bus, must not
+	 * be called under mQueue
+	 *
+	 * @param message
+	 * @param delivered
+	 *            true if the listener has been called
+	 */
+	private void done(ACASMessage message, boolean delivered) {
+		releasePayload(message);
+		mCommunication.onListenerDone(message, delivered);
+	}
+
+	private void done(ArrayList<ACASMessage> dropped) {
+		if (dropped != null) {
+			for (int i = 0; i < dropped.size(); i++) {
+				done(dropped.get(i), false);
+			}
+		}
+	}
+
+	/**
+	 * Take the reference of this listener on the shared payload of a queued message,
+	 * released once the message leaves the queue
+	 */
+	private static void retainPayload(ACASMessage message) {
+		final ACASSharedPayload shared = message.mSharedPayload;
+		if (shared != null) {
+			shared.retain();
+		}
+	}
+
+	private static void releasePayload(ACASMessage message) {
+		final ACASSharedPayload shared = message.mSharedPayload;
+		if (shared != null) {
+			shared.release();
+		}
+	}
+
+	long slowCount() {
+		synchronized (mQueue) {
+			return mSlowCount;
+		}
+	}
+
+	boolean isQuarantined() {
+		synchronized (mQueue) {
+			return mQuarantineEnd != 0 && System.nanoTime() - mQuarantineEnd < 0;
+		}
+	}
+
+	/**
+	 * Stop the delivery to this listener and release its executor
+	 */
+	void close() {
+		final Executor executor;
+		final ArrayList<ACASMessage> dropped;
+		synchronized (mQueue) {
+			mClosed = true;
+			dropped = clearQueue();
+			mQueue.notifyAll();
+			executor = mOwnExecutor ? mExecutor : null;
+		}
+		done(dropped);
+		if (executor != null) {
+			((ExecutorService) executor).shutdown();
+		}
+	}
+
+	long droppedCount() {
+		synchronized (mQueue) {
+			return mDroppedCount;
+		}
+	}
+
+	int queueSize() {
+		synchronized (mQueue) {
+			return mQueue.size();
+		}
+	}
+
+	@Override
+	public void run() {
+		for (int i = 0; i < DRAIN_BATCH; i++) {
+			final ACASMessage message;
+			synchronized (mQueue) {
+				if (mQueue.isEmpty() || mClosed) {
+					mScheduled = false;
+					return;
+				}
+				message = mQueue.removeFirst();
+				mQueue.notifyAll();
+			}
+			try {
+				deliver(message);
+			} catch (RuntimeException e) {
+				if (ACASLog.isLoggable(ACASLog.ERROR)) {
+					ACASLog.e(TAG, "Listener failed on message tag="+ message.mId, e);
+				}
+			} finally {
+				done(message, true);
+			}
+		}
+
+		// Give the thread back to the other tasks and continue later
+		final Executor executor;
+		synchronized (mQueue) {
+			if (mQueue.isEmpty() || mClosed) {
+				mScheduled = false;
+				return;
+			}
+			executor = mExecutor;
+		}
+		executor.execute(this);
+	}
+}
@@ -0,0 +1,178 @@
+package com.acasframework;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * <p>Immutable index of the topic subscriptions.</p>
+ * <p>A topic is a list of segments separated by '/', like "sensor/gps/fix". A filter
+ * segment "*" matches exactly one segment and a last segment "#" matches the remaining
+ * segments, none included. Each filter is one path of the trie, a topic is matched by
+ * walking its segments with the literal child and the "*" child of each node, so the
+ * cost depends on the topic depth and not on the number of subscriptions.</p>
+ */
+class ACASTopicTrie {
+
+	static final String TAG = ACASTopicTrie.class.getSimpleName();
+
+	static final char SEPARATOR = '/';
+	static final String ANY_ONE = "*";
+	static final String ANY_REST = "#";
+
+	/**
+	 * One filter segment
+	 */
+	static final class Node {
+		HashMap<String, Node> mChildren;
+		Node mAnyOne;
+		// Filters ending on this node
+		ACASSubscriber[] mExact = ACASRoutingTable.NONE;
+		// Filters ending by "#" after this node
+		ACASSubscriber[] mRest = ACASRoutingTable.NONE;
+	}
+
+	private final Node mRoot = new Node();
+	private boolean mEmpty = true;
+
+	boolean isEmpty() {
+		return mEmpty;
+	}
+
+	/**
+	 * Add a subscriber on its filter, only while the table is built
+	 *
+	 * @param subscriber
+	 */
+	void add(ACASSubscriber subscriber) {
+		final String[] filter = subscriber.mTopicFilter;
+		Node node = mRoot;
+		for (int i = 0; i < filter.length; i++) {
+			final String segment = filter[i];
+			if (segment.equals(ANY_REST)) {
+				node.mRest = append(node.mRest, subscriber);
+				mEmpty = false;
+				return;
+			}
+			Node child;
+			if (segment.equals(ANY_ONE)) {
+				child = node.mAnyOne;
+				if (child == null) {
+					child = new Node();
+					node.mAnyOne = child;
+				}
+			} else {
+				if (node.mChildren == null) {
+					node.mChildren = new HashMap<String, Node>();
+				}
+				child = node.mChildren.get(segment);
+				if (child == null) {
+					child = new Node();
+					node.mChildren.put(segment, child);
+				}
+			}
+			node = child;
+		}
+		node.mExact = append(node.mExact, subscriber);
+		mEmpty = false;
+	}
+
+	/**
+	 * Collect the subscribers of a topic, each one at most once
+	 *
+	 * @param topic
+	 *            The segments of the topic
+	 * @param out
+	 */
+	void collect(String[] topic, ArrayList<ACASSubscriber> out) {
+		collect(mRoot, topic, 0, out);
+	}
+
+	private static void collect(Node node, String[] topic, int depth, ArrayList<ACASSubscriber> out) {
+		addAll(node.mRest, out);
+		if (depth == topic.length) {
+			addAll(node.mExact, out);
+			return;
+		}
+		if (node.mChildren != null) {
+			final Node child = node.mChildren.get(topic[depth]);
+			if (child != null) {
+				collect(child, topic, depth + 1, out);
+			}
+		}
+		if (node.mAnyOne != null) {
+			collect(node.mAnyOne, topic, depth + 1, out);
+		}
+	}
+
+	/**
+	 * Check one filter against a topic, without trie
+	 *
+	 * @param filter
+	 *            The segments of the filter
+	 * @param topic
+	 *            The segments of the topic
+	 * @return true if the filter matches
+	 */
+	static boolean matches(String[] filter, String[] topic) {
+		for (int i = 0; i < filter.length; i++) {
+			if (filter[i].equals(ANY_REST)) {
+				return true;
+			}
+			if (i == topic.length || (!filter[i].equals(ANY_ONE) && !filter[i].equals(topic[i]))) {
+				return false;
+			}
+		}
+		return filter.length == topic.length;
+	}
+
+	/**
+	 * Split a topic or a filter into its segments
+	 *
+	 * @param topic
+	 * @param filter
+	 *            true if the wildcards are allowed
+	 * @return the segments
+	 * @throws IllegalArgumentException
+	 *             If the topic is empty, or has a misplaced wildcard
+	 */
+	static String[] split(String topic, boolean filter) {
+		if (topic == null || topic.length() == 0) {
+			throw new IllegalArgumentException("Empty topic");
+		}
+		int count = 1;
+		for (int i = 0; i < topic.length(); i++) {
+			if (topic.charAt(i) == SEPARATOR) {
+				count++;
+			}
+		}
+		final String[] segments = new String[count];
+		int start = 0;
+		for (int i = 0; i < count; i++) {
+			int end = topic.indexOf(SEPARATOR, start);
+			if (end < 0) {
+				end = topic.length();
+			}
+			final String segment = topic.substring(start, end);
+			final boolean wildcard = segment.indexOf('*') >= 0 || segment.indexOf('#') >= 0;
+			if (wildcard && (!filter || !(segment.equals(ANY_ONE) || (segment.equals(ANY_REST) && i == count - 1)))) {
+				throw new IllegalArgumentException("Misplaced wildcard in topic " + topic);
+			}
+			segments[i] = segment;
+			start = end + 1;
+		}
+		return segments;
+	}
+
+	private static void addAll(ACASSubscriber[] subscribers, ArrayList<ACASSubscriber> out) {
+		for (int i = 0; i < subscribers.length; i++) {
+			out.add(subscribers[i]);
+		}
+	}
+
+	private static ACASSubscriber[] append(ACASSubscriber[] subscribers, ACASSubscriber subscriber) {
+		final ACASSubscriber[] appended = new ACASSubscriber[subscribers.length + 1];
+		System.arraycopy(subscribers, 0, appended, 0, subscribers.length);
+		appended[subscribers.length] = subscriber;
+		return appended;
+	}
+}
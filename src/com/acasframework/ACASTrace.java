@@ -0,0 +1,103 @@
+package com.acasframework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>In-memory ring of the last bus events, for post-mortem analysis.</p>
+ * <p>Each event has a fixed size: its time, type, message tag and peer module. A record
+ * claims a slot with one atomic increment and writes into preallocated arrays, it does
+ * not allocate nor lock. The oldest events are overwritten, an event overwritten while
+ * it is dumped is skipped, as the header of its slot changed during the read.</p>
+ */
+class ACASTrace {
+
+	static final String TAG = ACASTrace.class.getSimpleName();
+
+	static final int SEND = 1;
+	static final int TRANSMIT = 2;
+	static final int RECEIVE = 3;
+	static final int DUPLICATE = 4;
+	static final int DISPATCH = 5;
+	static final int SLOW_LISTENER = 6;
+	static final int DROP = 7;
+
+	static final String[] TYPE_NAMES = { "?", "SEND", "TRANSMIT", "RECEIVE", "DUPLICATE", "DISPATCH", "SLOW_LISTENER", "DROP" };
+
+	// Longs per event: time and tag
+	static final int EVENT_SIZE = 2;
+
+	private final int mMask;
+	private final long[] mEvents;
+	private final String[] mPeers;
+	// Sequence and type of each slot, -1 while it is written
+	private final AtomicLongArray mHeaders;
+	private final AtomicLong mNext = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            The number of events kept, rounded up to a power of two
+	 */
+	ACASTrace(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mMask = size - 1;
+		mEvents = new long[size * EVENT_SIZE];
+		mPeers = new String[size];
+		mHeaders = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			mHeaders.set(i, -1);
+		}
+	}
+
+	/**
+	 * Record an event in the enabled trace, if any
+	 *
+	 * @param type
+	 * @param tag
+	 * @param peer
+	 */
+	static void event(int type, long tag, String peer) {
+		final ACASTrace trace = ACASCommunication.sTrace;
+		if (trace != null) {
+			trace.record(type, tag, peer);
+		}
+	}
+
+	void record(int type, long tag, String peer) {
+		final long sequence = mNext.getAndIncrement();
+		final int slot = (int) sequence & mMask;
+		final int offset = slot * EVENT_SIZE;
+		mHeaders.set(slot, -1);
+		mEvents[offset] = System.currentTimeMillis();
+		mEvents[offset + 1] = tag;
+		mPeers[slot] = peer;
+		mHeaders.lazySet(slot, sequence << 8 | type);
+	}
+
+	/**
+	 * Write the events, oldest first
+	 *
+	 * @param out
+	 */
+	void dump(StringBuilder out) {
+		final long end = mNext.get();
+		final long start = Math.max(0, end - mPeers.length);
+		for (long sequence = start; sequence < end; sequence++) {
+			final int slot = (int) sequence & mMask;
+			final int offset = slot * EVENT_SIZE;
+			final long header = mHeaders.get(slot);
+			final long time = mEvents[offset];
+			final long tag = mEvents[offset + 1];
+			final String peer = mPeers[slot];
+			if (header == -1 || header >>> 8 != sequence || mHeaders.get(slot) != header) {
+				continue;
+			}
+			final int type = (int) header & 0xFF;
+			out.append(time).append(' ').append(type < TYPE_NAMES.length ? TYPE_NAMES[type] : TYPE_NAMES[0])
+				.append(" tag=").append(tag).append(" peer=").append(peer).append('\n');
+		}
+	}
+}
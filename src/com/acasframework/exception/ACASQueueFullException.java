@@ -0,0 +1,21 @@
+package com.acasframework.exception;
+
+import com.acasframework.ACASQueuePolicy;
+
+/**
+ * <p>This exception was throw if you try to queue a message into a full queue</p>
+ * 
+ * @see {@link com.acasframework.ACASQueuePolicy#FAIL_FAST}
+ */
+public class ACASQueueFullException extends RuntimeException {
+
+	public ACASQueueFullException(String message) {
+		super(message);
+	}
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+}